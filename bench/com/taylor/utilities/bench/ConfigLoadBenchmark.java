@@ -0,0 +1,107 @@
+package com.taylor.utilities.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.taylor.utilities.CompiledConfig;
+import com.taylor.utilities.ConfigCache;
+import com.taylor.utilities.ConfigSnapshot;
+
+/**
+ * Times loading a config file of each size three ways: into a DOM document,
+ * streamed straight into the tables, and from its compiled snapshot. A fresh
+ * cache is used for every load so nothing is reused between them.
+ * <p>
+ * Run with: gradle jmh -Pjmh="ConfigLoadBenchmark -p commands=100,1000"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConfigLoadBenchmark {
+
+	@Param({ "100", "1000", "10000" })
+	public int commands;
+
+	/** config without a snapshot, so it is always parsed **/
+	private File xml;
+	/** copy of the same config with its snapshot compiled beside it **/
+	private File compiled;
+
+	@Setup
+	public void setUp() throws Exception {
+		xml = writeConfig(commands);
+		compiled = File.createTempFile("bench-config-compiled-", ".xml");
+		Files.copy(xml.toPath(), compiled.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+		CompiledConfig.compile(compiled.getPath());
+	}
+
+	@TearDown
+	public void tearDown() {
+		CompiledConfig.getCompiledFile(compiled.getAbsoluteFile()).delete();
+		compiled.delete();
+		xml.delete();
+	}
+
+	@Benchmark
+	public ConfigSnapshot dom() throws Exception {
+		return load(xml, true);
+	}
+
+	@Benchmark
+	public ConfigSnapshot streamed() throws Exception {
+		return load(xml, false);
+	}
+
+	@Benchmark
+	public ConfigSnapshot compiledSnapshot() throws Exception {
+		return load(compiled, false);
+	}
+
+	private static ConfigSnapshot load(File file, boolean retainDocument) throws Exception {
+		return new ConfigCache(false).track(file.getPath(), retainDocument).get();
+	}
+
+	/**
+	 * Writes a config like the ones devices ship with: commands with labels,
+	 * a few queries marked idempotent and some macros
+	 */
+	private static File writeConfig(int commandCount) throws IOException {
+		File file = File.createTempFile("bench-config-", ".xml");
+		try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			out.println("<config>");
+			out.println("\t<debug value=\"false\"/>");
+			out.println("\t<info value=\"false\"/>");
+			for (int i = 0; i < commandCount; i++) {
+				out.println("\t<command name=\"command" + i + "\" value=\"C" + Integer.toHexString(i) + "&#13;\" label=\"Command "
+						+ i + "\"" + (i % 10 == 0 ? " idempotent=\"true\"" : "") + "/>");
+			}
+			for (int i = 0; i + 2 < commandCount; i += 50) {
+				out.println("\t<macro name=\"macro" + i + "\"><step command=\"command" + i + "\"/><step command=\"command"
+						+ (i + 1) + "\"/><step command=\"command" + (i + 2) + "\"/></macro>");
+			}
+			out.println("</config>");
+		}
+		return file;
+	}
+}
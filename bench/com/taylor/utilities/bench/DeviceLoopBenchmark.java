@@ -0,0 +1,225 @@
+package com.taylor.utilities.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.taylor.utilities.CommunicationDevice;
+import com.taylor.utilities.DelimiterFramer;
+import com.taylor.utilities.ResponseFramer;
+
+/**
+ * Times full send and receive round trips against an echo server in the same
+ * process, so the cost measured is the library's own: pacing, framing,
+ * buffers and futures, plus loopback TCP.
+ * <p>
+ * Run with: gradle jmh -Pjmh="DeviceLoopBenchmark -p depth=16"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeviceLoopBenchmark {
+
+	private static final String COMMAND = "!1PWRQSTN\r";
+	private static final byte[] BINARY = COMMAND.getBytes(StandardCharsets.ISO_8859_1);
+
+	/** commands in the pipelined batch, and the pipeline's depth **/
+	@Param("16")
+	public int depth;
+
+	private EchoServer server;
+	private LoopbackDevice device;
+	private LoopbackDevice pipelined;
+	private List<String> batch;
+
+	@Setup
+	public void setUp() throws IOException {
+		server = new EchoServer();
+		device = new LoopbackDevice(server.getPort(), 1);
+		pipelined = new LoopbackDevice(server.getPort(), depth);
+		if (!device.connect() || !pipelined.connect()) {
+			throw new IllegalStateException("Could not connect to the echo server");
+		}
+
+		batch = new ArrayList<String>();
+		for (int i = 0; i < depth; i++) {
+			batch.add(COMMAND);
+		}
+		if (!device.sendCommand(COMMAND).equals(COMMAND) || pipelined.sendBatch(batch).size() != depth) {
+			throw new IllegalStateException("Echo server did not answer");
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		device.disconnect();
+		pipelined.disconnect();
+		server.close();
+	}
+
+	@Benchmark
+	public String sendCommand() {
+		return device.sendCommand(COMMAND);
+	}
+
+	/**
+	 * Binary round trip, handing the pooled response buffer back as a
+	 * caller keeping reads allocation free would
+	 */
+	@Benchmark
+	public void sendCommandBytes(Blackhole blackhole) {
+		ByteBuffer response = device.sendCommand(BINARY);
+		blackhole.consume(response.remaining());
+		device.releaseResponse(response);
+	}
+
+	@Benchmark
+	public String sendCommandAsyncJoin() {
+		return device.sendCommandAsync(COMMAND).join();
+	}
+
+	/**
+	 * One batch of depth commands, pipelined; divide by depth for the cost
+	 * of each command
+	 */
+	@Benchmark
+	public List<String> sendBatchPipelined() {
+		return pipelined.sendBatch(batch);
+	}
+
+	/**
+	 * Framed device with no waits, so each round trip ends as soon as the
+	 * echo arrives
+	 */
+	private static class LoopbackDevice extends CommunicationDevice {
+
+		private final int depth;
+
+		LoopbackDevice(int port, int depth) {
+			super(InetAddress.getLoopbackAddress().getHostAddress(), port);
+			this.depth = depth;
+		}
+
+		@Override
+		public String getDefaultIp() {
+			return InetAddress.getLoopbackAddress().getHostAddress();
+		}
+
+		@Override
+		public int getDefaultPort() {
+			return 0;
+		}
+
+		@Override
+		public int getSocketSendWait() {
+			return 0;
+		}
+
+		@Override
+		public int getSocketReceiveWait() {
+			return 0;
+		}
+
+		@Override
+		public int getSocketReceiveTimeout() {
+			return 1000;
+		}
+
+		@Override
+		public boolean getDebug() {
+			return false;
+		}
+
+		@Override
+		public boolean getInfo() {
+			return false;
+		}
+
+		@Override
+		protected ResponseFramer getResponseFramer() {
+			return DelimiterFramer.CR;
+		}
+
+		@Override
+		protected int getPipelineDepth() {
+			return depth;
+		}
+	}
+
+	/**
+	 * Writes back whatever each connection sends, one thread per connection
+	 */
+	private static class EchoServer implements AutoCloseable {
+
+		private final ServerSocket serverSocket;
+
+		EchoServer() throws IOException {
+			serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			Thread acceptor = new Thread(this::accept, "echo-accept");
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+
+		int getPort() {
+			return serverSocket.getLocalPort();
+		}
+
+		private void accept() {
+			while (!serverSocket.isClosed()) {
+				try {
+					Socket socket = serverSocket.accept();
+					socket.setTcpNoDelay(true);
+					Thread echo = new Thread(() -> echo(socket), "echo");
+					echo.setDaemon(true);
+					echo.start();
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		}
+
+		private void echo(Socket socket) {
+			try (Socket s = socket) {
+				InputStream in = s.getInputStream();
+				OutputStream out = s.getOutputStream();
+				byte[] buffer = new byte[4096];
+				int read;
+				while ((read = in.read(buffer)) > 0) {
+					out.write(buffer, 0, read);
+				}
+			} catch (IOException e) {
+				// client went away
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			serverSocket.close();
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package com.taylor.utilities.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.taylor.utilities.HexCodec;
+import com.taylor.utilities.Util;
+
+/**
+ * Compares the table driven hex conversions with the String based versions
+ * Util used before, which are kept here as the baseline.
+ * <p>
+ * Run with: gradle jmh -Pjmh="HexCodecBenchmark -p frameLength=64"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class HexCodecBenchmark {
+
+	private static final int FRAMES = 256;
+
+	@Param("64")
+	public int frameLength;
+
+	private String[] frames;
+	private String[] hexFrames;
+	private String[] numbers;
+	private byte[] rawFrame;
+	private char[] hexBuffer;
+	private byte[] byteBuffer;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		frames = new String[FRAMES];
+		hexFrames = new String[FRAMES];
+		numbers = new String[FRAMES];
+		for (int i = 0; i < FRAMES; i++) {
+			byte[] bytes = new byte[frameLength];
+			random.nextBytes(bytes);
+			frames[i] = new String(bytes, StandardCharsets.ISO_8859_1);
+			hexFrames[i] = Legacy.convertStringToHex(frames[i]);
+			numbers[i] = frames[i].substring(0, 3);
+		}
+		verify(frames, hexFrames, numbers);
+
+		rawFrame = frames[0].getBytes(StandardCharsets.ISO_8859_1);
+		hexBuffer = new char[frameLength * 2];
+		byteBuffer = new byte[frameLength];
+	}
+
+	/**
+	 * @return index of the next frame, cycling so no single input is learned
+	 */
+	private int nextFrame() {
+		return next++ & (FRAMES - 1);
+	}
+
+	@Benchmark
+	public String legacyConvertStringToHex() {
+		return Legacy.convertStringToHex(frames[nextFrame()]);
+	}
+
+	@Benchmark
+	public String convertStringToHex() {
+		return Util.convertStringToHex(frames[nextFrame()]);
+	}
+
+	@Benchmark
+	public char[] encodeIntoCallersArray() {
+		HexCodec.encode(rawFrame, 0, rawFrame.length, hexBuffer, 0);
+		return hexBuffer;
+	}
+
+	@Benchmark
+	public String legacyConvertHexToString() {
+		return Legacy.convertHexToString(hexFrames[nextFrame()]);
+	}
+
+	@Benchmark
+	public String convertHexToString() {
+		return Util.convertHexToString(hexFrames[nextFrame()]);
+	}
+
+	@Benchmark
+	public byte[] decodeIntoCallersArray() {
+		HexCodec.decode(hexFrames[nextFrame()], byteBuffer, 0);
+		return byteBuffer;
+	}
+
+	@Benchmark
+	public Integer legacyConvertBigEndianHexStringToInteger() {
+		return Legacy.convertBigEndianHexStringToInteger(numbers[nextFrame()]);
+	}
+
+	@Benchmark
+	public Integer convertBigEndianHexStringToInteger() {
+		return Util.convertBigEndianHexStringToInteger(numbers[nextFrame()]);
+	}
+
+	/**
+	 * Checks the new conversions give the same results as the old ones
+	 */
+	private static void verify(String[] frames, String[] hexFrames, String[] numbers) {
+		for (int i = 0; i < frames.length; i++) {
+			check(Util.convertStringToHex(frames[i]), hexFrames[i]);
+			check(Util.convertHexToString(hexFrames[i]), Legacy.convertHexToString(hexFrames[i]));
+			check(Util.convertHexToString(hexFrames[i].toUpperCase()), frames[i]);
+			check(Util.convertBigEndianHexStringToInteger(numbers[i]), Legacy.convertBigEndianHexStringToInteger(numbers[i]));
+		}
+		String wide = "A\u0100\u20ac\n";
+		check(Util.convertStringToHex(wide), Legacy.convertStringToHex(wide));
+		check(Util.convertBigEndianHexStringToInteger("\u0100\u0001"), Legacy.convertBigEndianHexStringToInteger("\u0100\u0001"));
+		check(Util.convertHexToString("414"), Legacy.convertHexToString("414"));
+	}
+
+	private static void check(Object actual, Object expected) {
+		if (!actual.equals(expected)) {
+			throw new IllegalStateException("Expected " + expected + " but got " + actual);
+		}
+	}
+
+	/**
+	 * The conversions as Util implemented them before the codec
+	 */
+	private static class Legacy {
+
+		static String convertStringToHex(String str) {
+			char[] chars = str.toCharArray();
+			StringBuffer hex = new StringBuffer();
+			for (int i = 0; i < chars.length; i++) {
+				String out_put = Integer.toHexString((int) chars[i]);
+				if (out_put.length() == 1) hex.append("0");
+				hex.append(out_put);
+			}
+			return hex.toString();
+		}
+
+		static Integer convertBigEndianHexStringToInteger(String str) {
+			char[] chars = str.toCharArray();
+			StringBuffer hex = new StringBuffer();
+			for (int i = 0; i < chars.length; i++) {
+				String out_put = Integer.toHexString((int) chars[i]);
+				if (out_put.length() == 1) hex.append("0");
+				hex.append(out_put);
+			}
+			String hexInt = "" + (Integer.parseInt(hex.toString(), 16));
+			return Integer.parseInt(hexInt);
+		}
+
+		static String convertHexToString(String hex) {
+			StringBuilder sb = new StringBuilder();
+			StringBuilder temp = new StringBuilder();
+			for (int i = 0; i < hex.length() - 1; i += 2) {
+				String out_put = hex.substring(i, (i + 2));
+				int decimal = Integer.parseInt(out_put, 16);
+				sb.append((char) decimal);
+				temp.append(decimal);
+			}
+			return sb.toString();
+		}
+	}
+}
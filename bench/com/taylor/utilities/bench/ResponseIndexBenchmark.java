@@ -0,0 +1,137 @@
+package com.taylor.utilities.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.taylor.utilities.ResponseIndex;
+
+/**
+ * Compares decoding responses with {@link ResponseIndex} against scanning
+ * every command value for the longest one the response starts with.
+ * <p>
+ * Run with: gradle jmh -Pjmh="ResponseIndexBenchmark -p commands=5000"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseIndexBenchmark {
+
+	private static final int RESPONSES = 1024;
+
+	@Param("5000")
+	public int commands;
+
+	private String[] responses;
+	private ResponseIndex index;
+	private LinearScan scan;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		// eISCP style: a three letter code followed by a two character argument
+		Map<String, String> commandValues = new HashMap<String, String>();
+		Map<String, String> labels = new HashMap<String, String>();
+		Random random = new Random(42);
+		while (commandValues.size() < commands) {
+			String code = "" + (char) ('A' + random.nextInt(26)) + (char) ('A' + random.nextInt(26)) + (char) ('A' + random.nextInt(26));
+			String value = code + String.format("%02X", random.nextInt(256)) + "\r";
+			commandValues.put("cmd" + commandValues.size(), value);
+			labels.put(value, "Label " + commandValues.size());
+		}
+
+		String[] values = commandValues.values().toArray(new String[0]);
+		responses = new String[RESPONSES];
+		for (int i = 0; i < responses.length; i++) {
+			// mostly exact echoes of a command, some with a trailing parameter
+			String value = values[random.nextInt(values.length)];
+			responses[i] = i % 4 == 0 ? value.substring(0, value.length() - 1) + "XY\r" : value;
+		}
+
+		index = new ResponseIndex(commandValues, labels);
+		scan = new LinearScan(commandValues, labels);
+
+		for (String response : responses) {
+			ResponseIndex.Match match = index.decode(response);
+			String scanned = scan.decode(response, null);
+			if (match == null ? scanned != null : !match.getCommandValue().equals(scanned)) {
+				throw new IllegalStateException("Index and scan disagree on " + response);
+			}
+		}
+	}
+
+	/**
+	 * @return the next response, cycling so no single input is learned
+	 */
+	private String nextResponse() {
+		return responses[next++ & (RESPONSES - 1)];
+	}
+
+	@Benchmark
+	public String linearScan(Blackhole blackhole) {
+		return scan.decode(nextResponse(), blackhole);
+	}
+
+	@Benchmark
+	public ResponseIndex.Match responseIndex() {
+		return index.decode(nextResponse());
+	}
+
+	/**
+	 * What callers did before the index: try every command value
+	 */
+	private static class LinearScan {
+
+		private final String[] values;
+		private final String[] trimmed;
+		private final Map<String, String> labels;
+
+		LinearScan(Map<String, String> commands, Map<String, String> labels) {
+			this.values = commands.values().toArray(new String[0]);
+			this.trimmed = new String[values.length];
+			for (int i = 0; i < values.length; i++) {
+				trimmed[i] = values[i].trim();
+			}
+			this.labels = labels;
+		}
+
+		/**
+		 * @param blackhole takes the label, as the index looks it up too, or
+		 *            null to skip it
+		 * @return value of the command with the longest value the response
+		 *         starts with, or null if none
+		 */
+		String decode(String response, Blackhole blackhole) {
+			int longest = -1;
+			for (int i = 0; i < values.length; i++) {
+				if (response.startsWith(trimmed[i]) && (longest < 0 || trimmed[i].length() > trimmed[longest].length())) {
+					longest = i;
+				}
+			}
+			if (longest < 0) {
+				return null;
+			}
+			if (blackhole != null) {
+				blackhole.consume(labels.get(values[longest]));
+			}
+			return values[longest];
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package com.taylor.utilities.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.taylor.utilities.ASCIIReference;
+import com.taylor.utilities.Util;
+
+/**
+ * Times the Util conversions and ASCIIReference lookups used when logging and
+ * decoding responses, on random frames of printable and control characters.
+ * <p>
+ * Run with: gradle jmh -Pjmh="UtilBenchmark -p frameLength=64"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Thread)
+public class UtilBenchmark {
+
+	private static final int FRAMES = 256;
+
+	@Param("64")
+	public int frameLength;
+
+	private final ASCIIReference reference = ASCIIReference.getInstance();
+	private String[] frames;
+	private String[] hexFrames;
+	private byte[][] rawFrames;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		frames = new String[FRAMES];
+		hexFrames = new String[FRAMES];
+		rawFrames = new byte[FRAMES][];
+		for (int i = 0; i < FRAMES; i++) {
+			byte[] bytes = new byte[frameLength];
+			for (int j = 0; j < bytes.length; j++) {
+				// mostly printable, like eISCP traffic, with some control characters
+				bytes[j] = (byte) (random.nextInt(8) == 0 ? random.nextInt(0x20) : 0x20 + random.nextInt(0x5F));
+			}
+			rawFrames[i] = bytes;
+			frames[i] = new String(bytes, StandardCharsets.ISO_8859_1);
+			hexFrames[i] = Util.convertStringToHex(frames[i]);
+		}
+	}
+
+	/**
+	 * @return index of the next frame, cycling so no single input is learned
+	 */
+	private int nextFrame() {
+		return next++ & (FRAMES - 1);
+	}
+
+	@Benchmark
+	public String convertStringToHex() {
+		return Util.convertStringToHex(frames[nextFrame()]);
+	}
+
+	@Benchmark
+	public String convertHexToString() {
+		return Util.convertHexToString(hexFrames[nextFrame()]);
+	}
+
+	@Benchmark
+	public String displayAsciiCodes() {
+		return Util.displayAsciiCodes(frames[nextFrame()], false, true);
+	}
+
+	@Benchmark
+	public String getStringDebug() {
+		return Util.getStringDebug(frames[nextFrame()]);
+	}
+
+	@Benchmark
+	public String hexDump() {
+		return Util.hexDump(rawFrames[nextFrame()]);
+	}
+
+	/**
+	 * Looks up every character once, as displaying a whole frame does
+	 */
+	@Benchmark
+	public void getCharString(Blackhole blackhole) {
+		for (int c = 0; c < 256; c++) {
+			blackhole.consume(reference.getCharString(c));
+		}
+	}
+
+	@Benchmark
+	public void getCharStringBracketed(Blackhole blackhole) {
+		for (int c = 0; c < 256; c++) {
+			blackhole.consume(reference.getCharString(c, true));
+		}
+	}
+}
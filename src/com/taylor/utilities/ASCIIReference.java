@@ -1,204 +1,209 @@
 package com.taylor.utilities;
 
-import java.util.HashMap;
-
 public class ASCIIReference {
 
-	/** Maps the class contant vars to the eiscp command string. **/
-	private static HashMap<Integer, String> asciiMap = null;
+	/** shown for codes with no name **/
+	private static final String NOT_FOUND = "[NOTFOUND]";
+
+	/** name of each character code, such as "NUL" or "A" **/
+	private static final String[] NAMES = new String[256];
+
+	/** names with the non printable ones in brackets, such as "[NUL]" **/
+	private static final String[] BRACKETED_NAMES = new String[256];
 
-	private static ASCIIReference instance_ = null;
+	private static final ASCIIReference instance_ = new ASCIIReference();
+
+	static {
+		initNames();
+		for (int i = 0; i < NAMES.length; i++) {
+			if (NAMES[i] == null) {
+				NAMES[i] = NOT_FOUND;
+				BRACKETED_NAMES[i] = NOT_FOUND;
+			} else {
+				BRACKETED_NAMES[i] = isPrintableCode(i) ? NAMES[i] : "[" + NAMES[i] + "]";
+			}
+		}
+	}
 
 	private ASCIIReference() {
-		initMap();
-		instance_ = this;
 	}
 
 	/** Singleton method to ensure all is setup. **/
 	public static ASCIIReference getInstance() {
-		if (instance_ != null)
-			return instance_;
-		else
-			return new ASCIIReference();
+		return instance_;
 	}
 
 	/**
-	 * searches for the commandName that is associated with the passed command.
+	 * searches for the name that is associated with the passed character code.
 	 * 
-	 * @param char
+	 * @param charInt
 	 *            the char number to get a string for
-	 * @return the commandNameMap_ key
+	 * @return the name of the character, or [NOTFOUND]
 	 **/
-	public String getCharString(Integer charInt) {
+	public String getCharString(int charInt) {
 		return getCharString(charInt, false);
 	}
 	
-	public String getCharString(Integer charInt, boolean bracketNonPrintable) {
-		
-		String result = asciiMap.get(charInt);
-		
-		if (!isPrintable(charInt) && bracketNonPrintable) {
-			result = "[" + result + "]";
-		}
-		
-		if (result == null) {
-			result = "[NOTFOUND]";
+	/**
+	 * searches for the name that is associated with the passed character code.
+	 * Never allocates - every name is prepared up front.
+	 * 
+	 * @param charInt
+	 *            the char number to get a string for
+	 * @param bracketNonPrintable
+	 *            true to get non printable names in brackets, such as [CR]
+	 * @return the name of the character, or [NOTFOUND]
+	 **/
+	public String getCharString(int charInt, boolean bracketNonPrintable) {
+		if (charInt < 0 || charInt >= NAMES.length) {
+			return NOT_FOUND;
 		}
-		
-		return result;
+		return bracketNonPrintable ? BRACKETED_NAMES[charInt] : NAMES[charInt];
 	}
 
 
-	public boolean isPrintable(Integer charInt) {
-		boolean result = true;
-		
-		if ((charInt <= 32) || (charInt == 127)) {
-			result = false;
-		}else {
-			result = true;
-		}
-			
-		
-		return result;
+	public boolean isPrintable(int charInt) {
+		return isPrintableCode(charInt);
+	}
+	
+	private static boolean isPrintableCode(int charInt) {
+		return (charInt > 32) && (charInt != 127);
 	}
 	
 	/**
-	 * Initializes all the class constants (commandNameMap_ & commandMap_ ) that
-	 * help with processing the commands.
+	 * Fills in the name of every character code that has one.
 	 **/
-	private void initMap() {
+	private static void initNames() {
 		
-		asciiMap = new HashMap<Integer, String>();
+		NAMES[0] = "NUL";
+		NAMES[1] = "SOH";
+		NAMES[2] = "STX";
+		NAMES[3] = "ETX";
+		NAMES[4] = "EOT";
+		NAMES[5] = "ENQ";
+		NAMES[6] = "ACK";
+		NAMES[7] = "BEL";
+		NAMES[8] = "BS";
+		NAMES[9] = "TAB";
+		NAMES[10] = "LF";
+		NAMES[11] = "VT";
+		NAMES[12] = "FF";
+		NAMES[13] = "CR";
+		NAMES[14] = "SO";
+		NAMES[15] = "SI";
+		NAMES[16] = "DLE";
+		NAMES[17] = "DC1";
+		NAMES[18] = "DC2";
+		NAMES[19] = "DC3";
+		NAMES[20] = "DC4";
+		NAMES[21] = "NAK";
+		NAMES[22] = "SYN";
+		NAMES[23] = "ETB";
+		NAMES[24] = "CAN";
+		NAMES[25] = "EM";
+		NAMES[26] = "EOF";
+		NAMES[27] = "ESC";
+		NAMES[28] = "FS";
+		NAMES[29] = "GS";
+		NAMES[30] = "RS";
+		NAMES[31] = "US";
+		NAMES[32] = "SPC";
+		NAMES[33] = "!";
+		NAMES[34] = "\"";
+		NAMES[35] = "#";
+		NAMES[36] = "$";
+		NAMES[37] = "%";
+		NAMES[38] = "&";
+		NAMES[39] = "'";
+		NAMES[40] = "(";
+		NAMES[41] = ")";
+		NAMES[42] = "*";
+		NAMES[43] = "+";
+		NAMES[44] = ",";
+		NAMES[45] = "-";
+		NAMES[46] = ".";
+		NAMES[47] = "/";
+		NAMES[48] = "0";
+		NAMES[49] = "1";
+		NAMES[50] = "2";
+		NAMES[51] = "3";
+		NAMES[52] = "4";
+		NAMES[53] = "5";
+		NAMES[54] = "6";
+		NAMES[55] = "7";
+		NAMES[56] = "8";
+		NAMES[57] = "9";
+		NAMES[58] = ":";
+		NAMES[59] = ";";
+		NAMES[60] = "<";
+		NAMES[61] = "=";
+		NAMES[62] = ">";
+		NAMES[63] = "?";
+		NAMES[64] = "@";
+		NAMES[65] = "A";
+		NAMES[66] = "B";
+		NAMES[67] = "C";
+		NAMES[68] = "D";
+		NAMES[69] = "E";
+		NAMES[70] = "F";
+		NAMES[71] = "G";
+		NAMES[72] = "H";
+		NAMES[73] = "I";
+		NAMES[74] = "J";
+		NAMES[75] = "K";
+		NAMES[76] = "L";
+		NAMES[77] = "M";
+		NAMES[78] = "N";
+		NAMES[79] = "O";
+		NAMES[80] = "P";
+		NAMES[81] = "Q";
+		NAMES[82] = "R";
+		NAMES[83] = "S";
+		NAMES[84] = "T";
+		NAMES[85] = "U";
+		NAMES[86] = "V";
+		NAMES[87] = "W";
+		NAMES[88] = "X";
+		NAMES[89] = "Y";
+		NAMES[90] = "Z";
+		NAMES[91] = "[";
+		NAMES[92] = "\\";
+		NAMES[93] = "]";
+		NAMES[94] = "^";
+		NAMES[95] = "_";
+		NAMES[96] = "`";
+		NAMES[97] = "a";
+		NAMES[98] = "b";
+		NAMES[99] = "c";
+		NAMES[100] = "d";
+		NAMES[101] = "e";
+		NAMES[102] = "f";
+		NAMES[103] = "g";
+		NAMES[104] = "h";
+		NAMES[105] = "i";
+		NAMES[106] = "j";
+		NAMES[107] = "k";
+		NAMES[108] = "l";
+		NAMES[109] = "m";
+		NAMES[110] = "n";
+		NAMES[111] = "o";
+		NAMES[112] = "p";
+		NAMES[113] = "q";
+		NAMES[114] = "r";
+		NAMES[115] = "s";
+		NAMES[116] = "t";
+		NAMES[117] = "u";
+		NAMES[118] = "v";
+		NAMES[119] = "w";
+		NAMES[120] = "x";
+		NAMES[121] = "y";
+		NAMES[122] = "z";
+		NAMES[123] = "{";
+		NAMES[124] = "|";
+		NAMES[125] = "}";
+		NAMES[126] = "~";
+		NAMES[127] = "DEL";
 		
-		asciiMap.put(0, "NUL");
-		asciiMap.put(1, "SOH");
-		asciiMap.put(2, "STX");
-		asciiMap.put(3, "ETX");
-		asciiMap.put(4, "EOT");
-		asciiMap.put(5, "ENQ");
-		asciiMap.put(6, "ACK");
-		asciiMap.put(7, "BEL");
-		asciiMap.put(8, "BS");
-		asciiMap.put(9, "TAB");
-		asciiMap.put(10, "LF");
-		asciiMap.put(11, "VT");
-		asciiMap.put(12, "FF");
-		asciiMap.put(13, "CR");
-		asciiMap.put(14, "SO");
-		asciiMap.put(15, "SI");
-		asciiMap.put(16, "DLE");
-		asciiMap.put(17, "DC1");
-		asciiMap.put(18, "DC2");
-		asciiMap.put(19, "DC3");
-		asciiMap.put(20, "DC4");
-		asciiMap.put(21, "NAK");
-		asciiMap.put(22, "SYN");
-		asciiMap.put(23, "ETB");
-		asciiMap.put(24, "CAN");
-		asciiMap.put(25, "EM");
-		asciiMap.put(26, "EOF");
-		asciiMap.put(27, "ESC");
-		asciiMap.put(28, "FS");
-		asciiMap.put(29, "GS");
-		asciiMap.put(30, "RS");
-		asciiMap.put(31, "US");
-		asciiMap.put(32, "SPC");
-		asciiMap.put(33, "!");
-		asciiMap.put(34, "\"");
-		asciiMap.put(35, "#");
-		asciiMap.put(36, "$");
-		asciiMap.put(37, "%");
-		asciiMap.put(38, "&");
-		asciiMap.put(39, "'");
-		asciiMap.put(40, "(");
-		asciiMap.put(41, ")");
-		asciiMap.put(42, "*");
-		asciiMap.put(43, "+");
-		asciiMap.put(44, ",");
-		asciiMap.put(45, "-");
-		asciiMap.put(46, ".");
-		asciiMap.put(47, "/");
-		asciiMap.put(48, "0");
-		asciiMap.put(49, "1");
-		asciiMap.put(50, "2");
-		asciiMap.put(51, "3");
-		asciiMap.put(52, "4");
-		asciiMap.put(53, "5");
-		asciiMap.put(54, "6");
-		asciiMap.put(55, "7");
-		asciiMap.put(56, "8");
-		asciiMap.put(57, "9");
-		asciiMap.put(58, ":");
-		asciiMap.put(59, ";");
-		asciiMap.put(60, "<");
-		asciiMap.put(61, "=");
-		asciiMap.put(62, ">");
-		asciiMap.put(63, "?");
-		asciiMap.put(64, "@");
-		asciiMap.put(65, "A");
-		asciiMap.put(66, "B");
-		asciiMap.put(67, "C");
-		asciiMap.put(68, "D");
-		asciiMap.put(69, "E");
-		asciiMap.put(70, "F");
-		asciiMap.put(71, "G");
-		asciiMap.put(72, "H");
-		asciiMap.put(73, "I");
-		asciiMap.put(74, "J");
-		asciiMap.put(75, "K");
-		asciiMap.put(76, "L");
-		asciiMap.put(77, "M");
-		asciiMap.put(78, "N");
-		asciiMap.put(79, "O");
-		asciiMap.put(80, "P");
-		asciiMap.put(81, "Q");
-		asciiMap.put(82, "R");
-		asciiMap.put(83, "S");
-		asciiMap.put(84, "T");
-		asciiMap.put(85, "U");
-		asciiMap.put(86, "V");
-		asciiMap.put(87, "W");
-		asciiMap.put(88, "X");
-		asciiMap.put(89, "Y");
-		asciiMap.put(90, "Z");
-		asciiMap.put(91, "[");
-		asciiMap.put(92, "\\");
-		asciiMap.put(93, "]");
-		asciiMap.put(94, "^");
-		asciiMap.put(95, "_");
-		asciiMap.put(96, "`");
-		asciiMap.put(97, "a");
-		asciiMap.put(98, "b");
-		asciiMap.put(99, "c");
-		asciiMap.put(100, "d");
-		asciiMap.put(101, "e");
-		asciiMap.put(102, "f");
-		asciiMap.put(103, "g");
-		asciiMap.put(104, "h");
-		asciiMap.put(105, "i");
-		asciiMap.put(106, "j");
-		asciiMap.put(107, "k");
-		asciiMap.put(108, "l");
-		asciiMap.put(109, "m");
-		asciiMap.put(110, "n");
-		asciiMap.put(111, "o");
-		asciiMap.put(112, "p");
-		asciiMap.put(113, "q");
-		asciiMap.put(114, "r");
-		asciiMap.put(115, "s");
-		asciiMap.put(116, "t");
-		asciiMap.put(117, "u");
-		asciiMap.put(118, "v");
-		asciiMap.put(119, "w");
-		asciiMap.put(120, "x");
-		asciiMap.put(121, "y");
-		asciiMap.put(122, "z");
-		asciiMap.put(123, "{");
-		asciiMap.put(124, "|");
-		asciiMap.put(125, "}");
-		asciiMap.put(126, "~");
-		asciiMap.put(127, "DEL");
-			
-		}
-
 	}
+
+}
@@ -1,27 +1,34 @@
 package com.taylor.utilities;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
 public abstract class AbstractConfig {
 
 	private static final String CONFIG_ENV_VARIABLE = "config_file";
 	
 	protected String filePath;
+	/** the latest file's values, set again whenever the file is reloaded **/
 	protected Document configDoc;
 	protected boolean debug;
 	protected boolean info;
+	/** follow the latest file; entries put or removed here override it **/
 	protected Map<String, String> commands;
 	protected Map<String, String> labels;
+	protected Map<String, List<String>> macros;
+	private Supplier<ConfigSnapshot> config;
+	private volatile ConfigSnapshot loaded;
 	
 	protected abstract String getDefaultFilename();
 	
@@ -29,22 +36,149 @@ public abstract class AbstractConfig {
 		return filePath;
 	}
 	
+	/**
+	 * @return the latest parse of the config file, replaced whenever the file
+	 *         is edited
+	 */
+	public ConfigSnapshot getSnapshot() {
+		ConfigSnapshot snapshot = config.get();
+		if (snapshot != loaded) {
+			// the file has been reloaded - bring the fields up to date
+			this.configDoc = snapshot.getDocument();
+			this.debug = snapshot.getDebug();
+			this.info = snapshot.getInfo();
+			loaded = snapshot;
+		}
+		return snapshot;
+	}
+	
+	/**
+	 * @return the parsed config file, shared with every other config of the
+	 *         same file so it must not be modified, or null if
+	 *         {@link #retainDocument()} is false and no other config of the
+	 *         file needed it
+	 */
 	protected Document getConfigDocument() {
+		getSnapshot();
 		return configDoc;
 	}
 	
 	public boolean getDebug() {
+		getSnapshot();
 		return debug;
 	}
 	
 	public boolean getInfo() {
+		getSnapshot();
 		return info;
 	}
 	
+	/**
+	 * @return level matching the config's &lt;debug&gt; and &lt;info&gt; settings, for
+	 *         a device to return from its own getLogLevel
+	 */
+	public LogLevel getLogLevel() {
+		return LogLevel.of(getDebug(), getInfo());
+	}
+	
 	protected Map<String, String> getAbstractCommands() {
 		return commands;
 	}
 	
+	/**
+	 * Gets a command ready to write to the device, encoded by
+	 * {@link #encodeCommand(String)} the first time it is asked for and reused
+	 * until the config file changes. Commands put in {@link #commands} are
+	 * encoded each time instead.
+	 * @param name name attribute of the &lt;command&gt; element
+	 * @return read only payload, or null if there is no such command
+	 */
+	public ByteBuffer getCommandPayload(String name) {
+		ConfigSnapshot snapshot = getSnapshot();
+		if (isEdited(commands, name)) {
+			String value = commands.get(name);
+			return value == null ? null : ByteBuffer.wrap(encodeCommand(value)).asReadOnlyBuffer();
+		}
+		Map<String, ByteBuffer> payloads = snapshot.getPayloads(getClass());
+		ByteBuffer payload = payloads.get(name);
+		if (payload == null) {
+			String value = snapshot.getCommands().get(name);
+			if (value == null) {
+				return null;
+			}
+			payload = ByteBuffer.wrap(encodeCommand(value)).asReadOnlyBuffer();
+			payloads.put(name, payload);
+		}
+		// each caller gets its own position and limit over the shared bytes
+		return payload.duplicate();
+	}
+	
+	/**
+	 * Converts a command value to the bytes sent to the device. Protocols that
+	 * wrap each command, such as eISCP's header, override this to add the
+	 * framing. The result is shared by every config of the same class and
+	 * file, so it must depend only on the value.
+	 * @param value value attribute of the &lt;command&gt; element
+	 * @return bytes to send
+	 */
+	protected byte[] encodeCommand(String value) {
+		return value.getBytes(getCharset());
+	}
+	
+	/**
+	 * @return charset command values are encoded with, matching
+	 *         {@link CommunicationDevice}'s default
+	 */
+	protected Charset getCharset() {
+		return StandardCharsets.ISO_8859_1;
+	}
+	
+	/**
+	 * @param name name attribute of the &lt;command&gt; element
+	 * @return true if the command is marked idempotent="true", meaning it only
+	 *         queries the device so its response may be cached
+	 */
+	public boolean isIdempotent(String name) {
+		return getSnapshot().getIdempotentCommands().contains(name);
+	}
+	
+	/**
+	 * Works out which command a response belongs to, in time proportional to
+	 * the response's length rather than the number of commands
+	 * @param response response from the device, such as {@link CommunicationDevice#readResponse()}
+	 * @return command name, label and parameter, or null if no command matches
+	 */
+	public ResponseIndex.Match decodeResponse(String response) {
+		return getSnapshot().getResponseIndex().decode(response);
+	}
+	
+	/**
+	 * Gets the command values of a macro, ready for
+	 * {@link CommunicationDevice#sendBatch(List)}
+	 * @param name name attribute of the &lt;macro&gt; element
+	 * @return command values in order, or null if there is no such macro
+	 */
+	public List<String> getMacro(String name) {
+		return macros.get(name);
+	}
+	
+	/**
+	 * @return cache the config file is parsed through
+	 */
+	protected ConfigCache getConfigCache() {
+		return ConfigCache.getDefault();
+	}
+	
+	/**
+	 * Large generated device profiles can override this to return false, so
+	 * the file is streamed straight into the command, label and macro maps
+	 * instead of being held as a DOM document.
+	 * @return true to keep the parsed document for {@link #getConfigDocument()}
+	 */
+	protected boolean retainDocument() {
+		return true;
+	}
+	
 	protected String getEnvFilePath() {
 		return System.getenv(CONFIG_ENV_VARIABLE);
 	}
@@ -59,7 +193,10 @@ public abstract class AbstractConfig {
 	}
 	
 	/**
-	 * Initializes this Object
+	 * Initializes this Object. The file is only parsed if no other config has
+	 * parsed it since it last changed; the command, label and macro maps
+	 * always reflect the latest version of the file, plus any entries a
+	 * subclass has put in or removed from them.
 	 * @param configFilePath
 	 * @throws Exception 
 	 */
@@ -71,29 +208,24 @@ public abstract class AbstractConfig {
 		}
 		// set the local var
 		this.filePath = configFilePath;
-		Document configDocument = getConfigFile(configFilePath);
-		this.configDoc = configDocument;
-		parseConfigFile(configDocument);
+		this.config = getConfigFile(configFilePath);
+		
+		this.loaded = null;
+		getSnapshot();
+		this.commands = new SnapshotMap<String>(config, ConfigSnapshot::getCommands);
+		this.labels = new SnapshotMap<String>(config, ConfigSnapshot::getLabels);
+		this.macros = new SnapshotMap<List<String>>(config, ConfigSnapshot::getMacros);
 	}
 	
 	/**
-	 * Gets an XML Document from the passed configFilePath
+	 * Gets the parsed config file from the cache
 	 * @param configFilePath - path of the XML file to read
-	 * @return XML Document from configFilePath
+	 * @return supplier of the latest snapshot of configFilePath
 	 * @throws Exception 
 	 */
-	private Document getConfigFile(String configFilePath) throws Exception {		
-		Document configDocument = null;
-
+	private Supplier<ConfigSnapshot> getConfigFile(String configFilePath) throws Exception {		
 		try {
-			File xmlFile = new File(configFilePath);
-			if (!xmlFile.exists()){
-				throw new FileNotFoundException(configFilePath + " not found");
-			}
-			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-			configDocument = dBuilder.parse(xmlFile);
-			configDocument.getDocumentElement().normalize();
+			return getConfigCache().track(configFilePath, retainDocument());
 		} catch (Exception e) {
 			// display a message
 			StringBuilder output = new StringBuilder();
@@ -113,65 +245,103 @@ public abstract class AbstractConfig {
 			throw new Exception(output.toString());
 			
 		}
-		
-		return configDocument;
 	}
-
-	private void parseConfigFile(Document configDocument) {
+	
+	/**
+	 * @return true if the map's entry for the key may differ from the file's,
+	 *         because it was put or removed by a subclass or the map replaced
+	 */
+	private static boolean isEdited(Map<String, ?> map, String key) {
+		return !(map instanceof SnapshotMap) || ((SnapshotMap<?>) map).isEdited(key);
+	}
+	
+	/**
+	 * View of one of the snapshot's maps that follows the snapshot as the file
+	 * is reloaded. Entries put or removed through the view are kept on top of
+	 * whatever the file holds, so subclasses can still adjust the maps they
+	 * were given. Values may not be null.
+	 */
+	private static class SnapshotMap<V> extends AbstractMap<String, V> {
+		
+		private final Supplier<ConfigSnapshot> config;
+		private final Function<ConfigSnapshot, Map<String, V>> map;
+		private final Map<String, V> added = new ConcurrentHashMap<String, V>();
+		private final Set<Object> removed = ConcurrentHashMap.newKeySet();
+		private volatile boolean edited;
 		
-		if (getDebug()) {
-			System.out.println("Root element :" + configDocument.getDocumentElement().getNodeName());
+		SnapshotMap(Supplier<ConfigSnapshot> config, Function<ConfigSnapshot, Map<String, V>> map) {
+			this.config = config;
+			this.map = map;
 		}
-	
-		// get the debug value
-		try {
-			// assume false until we can prove otherwise
-			debug = false;
-			Element element = (Element) configDocument.getElementsByTagName("debug").item(0);
-			String tempValue = element.getAttribute("value").toLowerCase();
-			if (tempValue.equals("true")) {
-				debug = true;
-			} 
-		} catch (Exception e) {
-			// no action needed - just avoiding a crash if <debug> wasn't found
+		
+		private Map<String, V> current() {
+			return map.apply(config.get());
 		}
 		
-		// get the info value
-		try {
-			// assume false until we can prove otherwise
-			info = false;
-			Element element = (Element) configDocument.getElementsByTagName("info").item(0);
-			String tempValue = element.getAttribute("value").toLowerCase();
-			if (tempValue.equals("true")) {
-				info = true;
-			} 
-		} catch (Exception e) {
-			// no action needed - just avoiding a crash if <info> wasn't found
+		boolean isEdited(Object key) {
+			return edited && (added.containsKey(key) || removed.contains(key));
 		}
 		
-		// get the commands
-		try {
-			commands = new HashMap<String, String>();
-			labels = new HashMap<String, String>();
-			NodeList nodes = configDocument.getElementsByTagName("command");
-			for(int i = 0; i < nodes.getLength(); i++) {
-				Element element = (Element) nodes.item(i);
-				String name = element.getAttribute("name");
-				String value = element.getAttribute("value");
-				String label = element.getAttribute("label");
-
-				// add the commands to the command map
-				commands.put(name, value);
-				
-				// if there is a label, add it to label map
-				if (label != null && label.length() > 0) {
-					labels.put(value, label);
+		@Override
+		public V get(Object key) {
+			if (edited) {
+				V value = added.get(key);
+				if (value != null || removed.contains(key)) {
+					return value;
 				}
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
+			return current().get(key);
+		}
+		
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+		
+		@Override
+		public V put(String key, V value) {
+			V previous = get(key);
+			edited = true;
+			added.put(key, value);
+			removed.remove(key);
+			return previous;
+		}
+		
+		@Override
+		public V remove(Object key) {
+			V previous = get(key);
+			edited = true;
+			removed.add(key);
+			added.remove(key);
+			return previous;
+		}
+		
+		@Override
+		public void clear() {
+			edited = true;
+			added.clear();
+			removed.addAll(current().keySet());
 		}
 		
+		@Override
+		public int size() {
+			return edited ? merged().size() : current().size();
+		}
+		
+		@Override
+		public Set<Map.Entry<String, V>> entrySet() {
+			return edited ? merged().entrySet() : current().entrySet();
+		}
+		
+		/**
+		 * @return copy of the file's entries with the edits applied
+		 */
+		private Map<String, V> merged() {
+			Map<String, V> merged = new HashMap<String, V>(current());
+			merged.keySet().removeAll(removed);
+			merged.putAll(added);
+			return merged;
+		}
 	}
 	
 }
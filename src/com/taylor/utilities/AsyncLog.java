@@ -0,0 +1,186 @@
+package com.taylor.utilities;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Hands log messages to a {@link LogSink} on a background thread, so logging
+ * from the device I/O path never waits on the console. Messages are queued in
+ * a fixed size ring buffer without locks; when it is full new messages are
+ * dropped and counted rather than making the caller wait.
+ */
+public class AsyncLog {
+
+	private static final int DEFAULT_CAPACITY = 8192;
+
+	private final AtomicReferenceArray<Entry> slots;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final Thread writer;
+	private volatile long head;
+	private volatile boolean sleeping;
+	private volatile LogSink sink;
+
+	private static class DefaultHolder {
+		private static final AsyncLog instance = new AsyncLog(DEFAULT_CAPACITY, new ConsoleLogSink());
+
+		static {
+			// give queued messages a moment to reach the sink before the process ends
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> instance.flush(1000), "async-log-flush"));
+		}
+	}
+
+	/** @return the process wide log, printing to the console unless given another sink **/
+	public static AsyncLog getDefault() {
+		return DefaultHolder.instance;
+	}
+
+	/**
+	 * Constructor
+	 * @param capacity most messages queued at once, rounded up to a power of two
+	 * @param sink where messages are delivered
+	 */
+	public AsyncLog(int capacity, LogSink sink) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		this.slots = new AtomicReferenceArray<Entry>(size);
+		this.mask = size - 1;
+		this.sink = sink;
+		this.writer = new Thread(this::drain, "async-log");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * @param sink where messages are delivered from now on
+	 */
+	public void setSink(LogSink sink) {
+		this.sink = sink;
+	}
+
+	/**
+	 * @return number of messages dropped because the buffer was full
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Queues a message if the level is enabled, only building it if so
+	 * @param enabled level the source logs at
+	 * @param level level of the message
+	 * @param source device or config the message is about
+	 * @param message builds the message
+	 */
+	public void log(LogLevel enabled, LogLevel level, String source, Supplier<String> message) {
+		if (enabled.includes(level)) {
+			log(level, source, message.get(), null);
+		}
+	}
+
+	/**
+	 * Queues a message without waiting
+	 * @param level level of the message
+	 * @param source device or config the message is about
+	 * @param message the message
+	 * @param error exception the message is about, or null
+	 * @return false if the buffer was full and the message was dropped
+	 */
+	public boolean log(LogLevel level, String source, String message, Throwable error) {
+		long sequence;
+		do {
+			sequence = tail.get();
+			if (sequence - head >= slots.length()) {
+				dropped.incrementAndGet();
+				return false;
+			}
+		} while (!tail.compareAndSet(sequence, sequence + 1));
+
+		slots.set((int) (sequence & mask), new Entry(level, System.currentTimeMillis(), source, message, error));
+		if (sleeping) {
+			LockSupport.unpark(writer);
+		}
+		return true;
+	}
+
+	/**
+	 * Waits for the messages queued so far to reach the sink
+	 * @param timeout most miliseconds to wait
+	 * @return true if they all did
+	 */
+	public boolean flush(long timeout) {
+		long target = tail.get();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while (head < target) {
+			if (System.nanoTime() - deadline >= 0) {
+				return false;
+			}
+			LockSupport.unpark(writer);
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		return true;
+	}
+
+	/**
+	 * Writer thread: delivers messages in order, sleeping while there are none
+	 */
+	private void drain() {
+		long reportedDrops = 0;
+		while (true) {
+			long next = head;
+			int index = (int) (next & mask);
+			Entry entry = slots.get(index);
+			if (entry == null) {
+				long drops = dropped.get();
+				if (drops != reportedDrops) {
+					write(new Entry(LogLevel.WARN, System.currentTimeMillis(), "log",
+							(drops - reportedDrops) + " log message(s) dropped - buffer full", null));
+					reportedDrops = drops;
+				}
+				if (next == tail.get()) {
+					sleeping = true;
+					// recheck after announcing the sleep so a message queued meanwhile wakes us
+					if (next == tail.get()) {
+						LockSupport.park(this);
+					}
+					sleeping = false;
+				} else {
+					// a slot has been claimed but its message is not in it yet
+					Thread.yield();
+				}
+				continue;
+			}
+			slots.set(index, null);
+			head = next + 1;
+			write(entry);
+		}
+	}
+
+	private void write(Entry entry) {
+		try {
+			sink.write(entry.level, entry.time, entry.source, entry.message, entry.error);
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static class Entry {
+
+		private final LogLevel level;
+		private final long time;
+		private final String source;
+		private final String message;
+		private final Throwable error;
+
+		Entry(LogLevel level, long time, String source, String message, Throwable error) {
+			this.level = level;
+			this.time = time;
+			this.source = source;
+			this.message = message;
+			this.error = error;
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package com.taylor.utilities;
+
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Keeps several commands in flight on one connection and hands each framed
+ * response to the command it answers, either in the order the commands were
+ * sent or by a {@link ResponseCorrelator} key.
+ */
+class CommandPipeline {
+
+	private final DeviceConnection connection;
+	private final SendPacer pacer;
+	private final ResponseFramer framer;
+	private final ResponseCorrelator correlator;
+	private final Charset charset;
+	private final ReceiveBufferPool pool;
+	private final int depth;
+	private final int timeout;
+	private final Consumer<ByteBuffer> unsolicited;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final ArrayDeque<Request> inFlight = new ArrayDeque<Request>();
+	private final ArrayDeque<Request> waiting = new ArrayDeque<Request>();
+	private boolean reading;
+
+	/**
+	 * Constructor
+	 * @param connection connection the commands are written to
+	 * @param pacer spaces the writes to the device
+	 * @param framer decides where each response ends
+	 * @param correlator matches responses to commands, or null for in order
+	 * @param charset charset commands and responses are decoded with for the
+	 *            correlator
+	 * @param pool pool responses are received into
+	 * @param depth most commands waiting for a response at once
+	 * @param timeout miliseconds to wait for the next response
+	 * @param unsolicited takes responses that answer no command, or null to
+	 *            drop them
+	 */
+	CommandPipeline(DeviceConnection connection, SendPacer pacer, ResponseFramer framer, ResponseCorrelator correlator,
+			Charset charset, ReceiveBufferPool pool, int depth, int timeout, Consumer<ByteBuffer> unsolicited) {
+		this.connection = connection;
+		this.pacer = pacer;
+		this.framer = framer;
+		this.correlator = correlator;
+		this.charset = charset;
+		this.pool = pool;
+		this.depth = depth;
+		this.timeout = timeout;
+		this.unsolicited = unsolicited;
+	}
+
+	DeviceConnection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Sends the command now if fewer than depth commands are in flight,
+	 * otherwise once an earlier command has been answered
+	 * @param command command to send, from position to limit
+	 * @param gap miliseconds that must pass after the previous write
+	 * @return future completed with the command's response, or an empty
+	 *         response if none arrived before the timeout
+	 */
+	CompletableFuture<ByteBuffer> submit(ByteBuffer command, int gap) {
+		Object key = correlator == null ? null : correlator.requestKey(decode(command.duplicate()));
+		Request request = new Request(key, command, gap);
+		connection.beginResponse();
+		lock.lock();
+		try {
+			if (inFlight.size() < depth && waiting.isEmpty()) {
+				send(request);
+			} else {
+				waiting.add(request);
+			}
+		} finally {
+			lock.unlock();
+		}
+		readNext();
+		return request.future;
+	}
+
+	/**
+	 * Queues the request's write and counts it as in flight. Caller holds the
+	 * lock so writes happen in the same order as the in flight queue.
+	 */
+	private void send(Request request) {
+		inFlight.add(request);
+		pacer.send(connection, request.bytes, request.gap).exceptionally(e -> {
+			// the closed connection ends the pending read, which fails every request
+			AsyncLog.getDefault().log(LogLevel.ERROR, connection.toString(), "Pipelined write failed", e);
+			return null;
+		});
+	}
+
+	/**
+	 * Starts reading the next response if a command is waiting for one
+	 */
+	private void readNext() {
+		lock.lock();
+		try {
+			if (reading || inFlight.isEmpty()) {
+				return;
+			}
+			reading = true;
+		} finally {
+			lock.unlock();
+		}
+		connection.readFrameAsync(framer, timeout, pool).whenComplete(this::received);
+	}
+
+	private void received(ByteBuffer frame, Throwable e) {
+		List<Request> done = new ArrayList<Request>();
+		List<ByteBuffer> responses = new ArrayList<ByteBuffer>();
+		ByteBuffer unmatched = null;
+		lock.lock();
+		try {
+			reading = false;
+			if (e != null) {
+				Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+				if (!(cause instanceof SocketTimeoutException)) {
+					AsyncLog.getDefault().log(LogLevel.ERROR, connection.toString(), "Pipelined read failed", cause);
+				}
+				// the oldest command gives up and gets whatever part of its response arrived
+				Request oldest = inFlight.poll();
+				if (oldest != null) {
+					done.add(oldest);
+					responses.add(ByteBuffer.wrap(connection.drain()));
+				}
+			} else if (frame == null) {
+				// connection closed - nothing more will be answered
+				done.addAll(inFlight);
+				done.addAll(waiting);
+				inFlight.clear();
+				waiting.clear();
+				for (int i = 0; i < done.size(); i++) {
+					responses.add(ByteBuffer.allocate(0));
+				}
+			} else {
+				Request matched = match(frame);
+				if (matched != null) {
+					done.add(matched);
+					responses.add(frame);
+				} else {
+					unmatched = frame;
+				}
+			}
+
+			while (inFlight.size() < depth && !waiting.isEmpty()) {
+				send(waiting.poll());
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		if (unmatched != null) {
+			if (unsolicited != null) {
+				unsolicited.accept(unmatched);
+			} else {
+				pool.release(unmatched);
+			}
+		}
+		for (int i = 0; i < done.size(); i++) {
+			done.get(i).future.complete(responses.get(i));
+			connection.endResponse();
+		}
+		readNext();
+	}
+
+	/**
+	 * Removes and returns the in flight request the response answers. Caller
+	 * holds the lock.
+	 */
+	private Request match(ByteBuffer response) {
+		if (correlator == null) {
+			return inFlight.poll();
+		}
+		Object key = correlator.responseKey(decode(response.duplicate()));
+		if (key == null) {
+			return null;
+		}
+		Iterator<Request> requests = inFlight.iterator();
+		while (requests.hasNext()) {
+			Request request = requests.next();
+			if (key.equals(request.key)) {
+				requests.remove();
+				return request;
+			}
+		}
+		return null;
+	}
+
+	private String decode(ByteBuffer bytes) {
+		byte[] data = new byte[bytes.remaining()];
+		bytes.get(data);
+		return new String(data, charset);
+	}
+
+	private static class Request {
+
+		private final Object key;
+		private final ByteBuffer bytes;
+		private final int gap;
+		private final CompletableFuture<ByteBuffer> future = new CompletableFuture<ByteBuffer>();
+
+		Request(Object key, ByteBuffer bytes, int gap) {
+			this.key = key;
+			this.bytes = bytes;
+			this.gap = gap;
+		}
+	}
+}
@@ -1,19 +1,41 @@
 package com.taylor.utilities;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 public abstract class CommunicationDevice {
 		
 	private String ipAddress;
 	private int port;
-	private Socket socket;
+	/** ipAddress:port, built once for every log message **/
+	private String logSource;
+	private volatile DeviceConnection connection;
 	private int repeatDelay;
-	private DataOutputStream outputStream;
-	private DataInputStream inputStream;
+	private final AtomicReference<CompletableFuture<?>> lastAsyncCommand = 
+			new AtomicReference<CompletableFuture<?>>(CompletableFuture.completedFuture(null));
+	private final AtomicReference<CompletableFuture<Boolean>> pendingConnect = 
+			new AtomicReference<CompletableFuture<Boolean>>();
+	private final AtomicReference<CommandPipeline> pipeline = new AtomicReference<CommandPipeline>();
+	private final AtomicReference<SendPacer> pacer = new AtomicReference<SendPacer>();
+	private final CopyOnWriteArrayList<DeviceListener> listeners = new CopyOnWriteArrayList<DeviceListener>();
+	private final AtomicReference<CompletableFuture<?>> lastNotification = 
+			new AtomicReference<CompletableFuture<?>>(CompletableFuture.completedFuture(null));
+	private final AtomicReference<ResponseCache> responseCache = new AtomicReference<ResponseCache>();
+	private volatile LogLevel logLevel;
+	private final AtomicReference<DeviceMetrics> metrics = new AtomicReference<DeviceMetrics>();
 
 	/**
 	 * @return default IP Address to connect to
@@ -49,11 +71,195 @@ public abstract class CommunicationDevice {
 	 * @return display info output true/false (subset of debug)
 	 */
 	abstract public boolean getInfo();
+	
+	/**
+	 * Override to return a framer when the device's responses have a known end
+	 * (a terminator, a length header or a fixed size). A framed response is
+	 * returned as soon as its last byte arrives instead of after the receive
+	 * wait and timeout.
+	 * @return framer for this device's responses, or null to read until timeout
+	 */
+	protected ResponseFramer getResponseFramer() {
+		return null;
+	}
+	
+	/**
+	 * Override to keep more than one command in flight for devices that queue
+	 * commands and answer each one. Pipelining needs a {@link #getResponseFramer()
+	 * framer}; while it is on, responses should only be read through the
+	 * sendCommand methods.
+	 * @return most commands waiting for a response at once
+	 */
+	protected int getPipelineDepth() {
+		return 1;
+	}
+	
+	/**
+	 * Override when a pipelined device may answer out of order
+	 * @return correlator matching responses to commands, or null to match in
+	 *         the order the commands were sent
+	 */
+	protected ResponseCorrelator getResponseCorrelator() {
+		return null;
+	}
+
+	/**
+	 * Override for devices whose String commands and responses are not single
+	 * byte characters
+	 * @return charset String commands are encoded and responses decoded with
+	 */
+	protected Charset getCharset() {
+		return StandardCharsets.ISO_8859_1;
+	}
+
+	/**
+	 * @return bytes taken from the connection per packet read, and the initial
+	 *         size of each response buffer
+	 */
+	protected int getReceiveBufferSize() {
+		return 1024;
+	}
+	
+	/**
+	 * @return pool responses are received into
+	 */
+	protected ReceiveBufferPool getReceiveBufferPool() {
+		return ReceiveBufferPool.getDefault();
+	}
+
+	/**
+	 * Override to size the receive timeout from the device's measured
+	 * response time, as TCP sizes its retransmission timeout, instead of always
+	 * using {@link #getSocketReceiveTimeout()}, which becomes the longest the
+	 * timeout can grow to and is used until the first response has been
+	 * timed. With a framer the time to the end of each frame is measured.
+	 * Without one only the time to the first packet is, since the end of a
+	 * response cannot be seen, and {@link #getSocketReceiveWait()} is always
+	 * given for the rest of it to arrive.
+	 * @return true to adapt the receive timeout to the device
+	 */
+	protected boolean isAdaptiveReceive() {
+		return false;
+	}
+	
+	/**
+	 * @return shortest receive timeout, in miliseconds, adaptive receive may
+	 *         shrink it to
+	 */
+	protected int getMinimumReceiveWait() {
+		return 10;
+	}
+	
+	/**
+	 * @return miliseconds to wait for a response before timeout: the
+	 *         adaptive estimate if adaptive receive is on, otherwise
+	 *         {@link #getSocketReceiveTimeout()}
+	 */
+	protected int getCurrentReceiveTimeout() {
+		int timeout = getSocketReceiveTimeout();
+		// no timeout stays no timeout
+		return timeout > 0 ? adapt(timeout) : timeout;
+	}
+
+	/**
+	 * @return miliseconds a response to an idempotent command sent by name is
+	 *         reused for, zero turns the response cache off
+	 */
+	protected int getResponseCacheTtl() {
+		return 0;
+	}
+
+	/**
+	 * @return most responses kept in the response cache
+	 */
+	protected int getResponseCacheSize() {
+		return 64;
+	}
+
+	/**
+	 * Override to keep metrics apart from other devices at the same address,
+	 * or to use a registry of your own
+	 * @return latency and throughput metrics for this device, shared with
+	 *         every device talking to the same ip:port and visible over JMX
+	 *         until the last of them disconnects
+	 */
+	protected DeviceMetrics getMetrics() {
+		DeviceMetrics existing = metrics.get();
+		while (existing == null) {
+			DeviceMetrics acquired = DeviceMetrics.forDevice(ipAddress, port);
+			if (metrics.compareAndSet(null, acquired)) {
+				return acquired;
+			}
+			acquired.release();
+			existing = metrics.get();
+		}
+		return existing;
+	}
+	
+	/**
+	 * @return log this device's output is queued on
+	 */
+	protected AsyncLog getLog() {
+		return AsyncLog.getDefault();
+	}
+	
+	/**
+	 * @return level this device logs at: the one given to setLogLevel, otherwise
+	 *         DEBUG or INFO following getDebug and getInfo, else only warnings
+	 *         and errors
+	 */
+	public LogLevel getLogLevel() {
+		LogLevel level = logLevel;
+		return level != null ? level : LogLevel.of(getDebug(), getInfo());
+	}
+	
+	/**
+	 * Changes how much this device logs without touching its config
+	 * @param level level to log at, or null to follow getDebug and getInfo again
+	 */
+	public void setLogLevel(LogLevel level) {
+		this.logLevel = level;
+	}
 
 	public int getRepeatDelay() {
 		return repeatDelay;
 	}
 	
+	/**
+	 * @return transport engine that drives this device's timers
+	 */
+	protected NioEngine getEngine() {
+		return NioEngine.getDefault();
+	}
+	
+	/**
+	 * @return pool this device borrows its connection from
+	 */
+	protected ConnectionPool getConnectionPool() {
+		return ConnectionPool.getDefault();
+	}
+	
+	/**
+	 * Override to return true for devices that accept several connections,
+	 * so disconnect() keeps the connection open in the pool for the next
+	 * connect(). Off by default because many devices, such as projectors and
+	 * receivers, only serve one client and would be locked out of other
+	 * controllers until the pool's idle timeout.
+	 * @return true to hand the connection back to the pool on disconnect
+	 *         rather than close it
+	 */
+	protected boolean isPooled() {
+		return false;
+	}
+	
+	/**
+	 * @return executor that completes the futures returned by the async methods,
+	 *         keeping caller callbacks off the I/O threads
+	 */
+	protected Executor getCallbackExecutor() {
+		return ForkJoinPool.commonPool();
+	}
+	
 	/**
 	 * default constructor - uses default ip, port and delay
 	 */
@@ -98,6 +304,7 @@ public abstract class CommunicationDevice {
 		this.ipAddress = ipAddress;
 		this.port = port;
 		this.repeatDelay = delay;
+		this.logSource = ipAddress + ":" + port;
 	}
 	
 	/**
@@ -105,36 +312,74 @@ public abstract class CommunicationDevice {
 	 * port.
 	 **/
 	public boolean connect() {
+		// shares the connect under way with any other caller, so two threads
+		// connecting at once do not both borrow a connection
+		return openConnectionAsync().join();
+	}
+	
+	/**
+	 * Connects to the receiver without blocking the calling thread
+	 * @return future completed on the callback executor with true once
+	 *         connected, or false if the connection could not be made
+	 */
+	public CompletableFuture<Boolean> connectAsync() {
+		return openConnectionAsync().thenApplyAsync(connected -> connected, getCallbackExecutor());
+	}
+	
+	/**
+	 * Connects, completing on the thread that finished the connect
+	 * @return future completed with true once connected, or false if the
+	 *         connection could not be made
+	 */
+	private CompletableFuture<Boolean> openConnectionAsync() {
+		DeviceConnection current = connection;
+		if (current != null && current.isOpen()) {
+			return CompletableFuture.completedFuture(true);
+		}
 		
-		boolean result = false;
-
-		try {
-			if (socket == null || !socket.isConnected()) {
-				
-				// 1. creating a socket to connect to the server
-				socket = new Socket(ipAddress, port);
-				if (getDebug() || getInfo()) System.out.println("Connected to " + ipAddress + ":" + port);
-				
-				// Timeout must be set to something other than zero or read command will block indefinitly
-				socket.setSoTimeout(getSocketReceiveTimeout());
-				
-				// 2. get Input and Output streams
-				outputStream = new DataOutputStream(socket.getOutputStream());
-				inputStream = new DataInputStream(socket.getInputStream());
-
-				// System.out.println("out_Init");
-				outputStream.flush();
-				
-				if (socket.isConnected()) result = true;
+		// callers arriving while a connect is under way share its result
+		CompletableFuture<Boolean> attempt = new CompletableFuture<Boolean>();
+		if (!pendingConnect.compareAndSet(null, attempt)) {
+			CompletableFuture<Boolean> existing = pendingConnect.get();
+			return existing != null ? existing : openConnectionAsync();
+		}
+		
+		// drop any connection the peer has closed before opening a new one
+		boolean reconnect = current != null;
+		if (reconnect) {
+			getConnectionPool().invalidate(current);
+			connection = null;
+		}
+		
+		long started = System.nanoTime();
+		getConnectionPool().borrowAsync(ipAddress, port).handle((opened, e) -> {
+			if (e != null) {
+				getMetrics().failed();
+				logError("Could not connect to " + logSource, unwrap(e));
+				return false;
 			}
-			else if (socket.isConnected()) {
-				result = true;
+			try {
+				getMetrics().connected(System.nanoTime() - started, reconnect);
+				opened.setUnsolicitedHandler(this::unsolicitedData);
+			} catch (RuntimeException ex) {
+				getConnectionPool().invalidate(opened);
+				throw ex;
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-
-		return result;
+			connection = opened;
+			if (isLogging(LogLevel.INFO)) log(LogLevel.INFO, "Connected to " + logSource);
+			return true;
+		}).whenComplete((connected, e) -> {
+			// always let the next connect through, even if setting up this one failed
+			pendingConnect.set(null);
+			if (e != null) {
+				DeviceConnection opened = connection;
+				attempt.complete(opened != null && opened.isOpen());
+				logError("Could not connect to " + logSource, unwrap(e));
+			} else {
+				attempt.complete(connected);
+			}
+		});
+		return attempt;
 	}
 
 	/**
@@ -153,7 +398,7 @@ public abstract class CommunicationDevice {
 		
 		boolean result = false;
 
-		if (socket.isConnected()) {
+		if (connection != null && connection.isOpen()) {
 			// if we're already connected - test done!
 			result = true;
 		}
@@ -165,7 +410,9 @@ public abstract class CommunicationDevice {
 	}
 
 	/**
-	 * Closes the socket connection.
+	 * Closes the connection, or for {@link #isPooled() pooled} devices hands
+	 * it back to the pool, which keeps it open for the next connect() until
+	 * it has been idle for the pool's idle timeout.
 	 * 
 	 * @return true if the closed succesfully
 	 **/
@@ -176,32 +423,48 @@ public abstract class CommunicationDevice {
 		// 4: Closing connection
 		try {
 			
-			// close the inputStream
-			if (inputStream != null) {
-				inputStream.close();
-				inputStream = null;
-				acted = true;
-			}
-			
-			// close the outputStream
-			if (outputStream != null) {
-				outputStream.close();
-				outputStream = null;
-				acted = true;
-			}
-			
-			if (socket != null) {
-				socket.close();
-				socket = null;
+			if (connection != null) {
+				connection.setUnsolicitedHandler(null);
+				if (isPooled()) {
+					getConnectionPool().release(connection);
+				} else {
+					getConnectionPool().invalidate(connection);
+				}
+				connection = null;
 				acted = true;
 			}
 			
 		} catch (Exception e) {
-			e.printStackTrace();
+			logError("Could not disconnect from " + logSource, e);
+		}
+		
+		// the metrics stay registered while another device at this address holds them
+		DeviceMetrics held = metrics.getAndSet(null);
+		if (held != null) {
+			held.release();
 		}
 		return acted;
 	}
 
+	/**
+	 * Registers a listener for messages the device sends on its own, and
+	 * connects so they start arriving. Messages are only delivered while
+	 * connected; anything received while a command is waiting for its
+	 * response is treated as that response.
+	 * @param listener listener to add
+	 */
+	public void addListener(DeviceListener listener) {
+		listeners.addIfAbsent(listener);
+		openConnectionAsync();
+	}
+
+	/**
+	 * @param listener listener to stop notifying
+	 */
+	public void removeListener(DeviceListener listener) {
+		listeners.remove(listener);
+	}
+
 	/**
 	 * Send command to the device
 	 * @param command command to send 
@@ -255,6 +518,285 @@ public abstract class CommunicationDevice {
 		return processSendCommand(command, repeat, delay, displayCommand);
 	}
 	
+	/**
+	 * Send binary command to the device
+	 * @param command command to send
+	 * @return response from device, positioned at the first byte
+	 */
+	public ByteBuffer sendCommand(byte[] command) {
+		return sendCommand(ByteBuffer.wrap(command));
+	}
+	
+	/**
+	 * Send binary command to the device. The command's position is not moved,
+	 * so a prepared (read-only or direct) buffer can be sent again and again.
+	 * @param command command to send, from position to limit
+	 * @return response from device, positioned at the first byte
+	 */
+	public ByteBuffer sendCommand(ByteBuffer command) {
+		return sendCommand(command, 1, getSocketSendWait());
+	}
+	
+	/**
+	 * Send binary command to the device
+	 * @param command command to send, from position to limit
+	 * @param repeat number of times to repeat command
+	 * @param delay delay betweeen subsequent commands being sent
+	 * @return response from device, positioned at the first byte
+	 */
+	public ByteBuffer sendCommand(ByteBuffer command, int repeat, int delay) {
+		return await(sendCommandAsync(command, repeat, delay), ByteBuffer.allocate(0));
+	}
+	
+	/**
+	 * Send command to the device without blocking the calling thread
+	 * @param command command to send 
+	 * @return future completed with the response from device
+	 */
+	public CompletableFuture<String> sendCommandAsync(String command) {
+		return sendCommandAsync(command, 1);
+	}
+
+	/**
+	 * Send command to the device without blocking the calling thread
+	 * @param command command to send
+	 * @param repeat number of times to repeat command
+	 * @return future completed with the response from device
+	 */
+	public CompletableFuture<String> sendCommandAsync(String command, int repeat) {
+		return sendCommandAsync(command, repeat, command);
+	}
+	
+	/**
+	 * Send command to the device without blocking the calling thread
+	 * @param command command to send
+	 * @param repeat number of times to repeat command
+	 * @param displayCommand "friendly" command name to display
+	 * @return future completed with the response from device
+	 */
+	public CompletableFuture<String> sendCommandAsync(String command, int repeat, String displayCommand) {
+		return sendCommandAsync(command, repeat, getSocketSendWait(), displayCommand);
+	}
+	
+	/**
+	 * Send command to the device without blocking the calling thread
+	 * @param command command to send
+	 * @param repeat number of times to repeat command
+	 * @param delay delay betweeen subsequent commands being sent
+	 * @return future completed with the response from device
+	 */
+	public CompletableFuture<String> sendCommandAsync(String command, int repeat, int delay) {
+		return sendCommandAsync(command, repeat, delay, command);
+	}
+
+	/**
+	 * Send command to the device without blocking the calling thread. Async
+	 * commands to the same device are queued so each one gets its own response.
+	 * @param command command to send
+	 * @param repeat number of times to repeat command
+	 * @param delay delay betweeen subsequent commands being sent
+	 * @param displayCommand "friendly" command to display
+	 * @return future completed with the response from device
+	 */
+	public CompletableFuture<String> sendCommandAsync(String command, int repeat, int delay, String displayCommand) {
+		return sendBytesAsync(encode(command), repeat, delay, displayCommand).thenApply(this::decodeAndRelease);
+	}
+	
+	/**
+	 * Send binary command to the device without blocking the calling thread
+	 * @param command command to send
+	 * @return future completed with the response from device
+	 */
+	public CompletableFuture<ByteBuffer> sendCommandAsync(byte[] command) {
+		return sendCommandAsync(ByteBuffer.wrap(command));
+	}
+	
+	/**
+	 * Send binary command to the device without blocking the calling thread
+	 * @param command command to send, from position to limit
+	 * @return future completed with the response from device
+	 */
+	public CompletableFuture<ByteBuffer> sendCommandAsync(ByteBuffer command) {
+		return sendCommandAsync(command, 1, getSocketSendWait());
+	}
+	
+	/**
+	 * Send binary command to the device without blocking the calling thread.
+	 * The command's contents must not change until the future completes.
+	 * @param command command to send, from position to limit
+	 * @param repeat number of times to repeat command
+	 * @param delay delay betweeen subsequent commands being sent
+	 * @return future completed with the response from device
+	 */
+	public CompletableFuture<ByteBuffer> sendCommandAsync(ByteBuffer command, int repeat, int delay) {
+		return sendBytesAsync(command, repeat, delay, null);
+	}
+	
+	/**
+	 * Send a command from the config by name, using the payload the config
+	 * has already encoded so nothing is converted on the way out
+	 * @param config config holding the command
+	 * @param name name attribute of the &lt;command&gt; element
+	 * @return response from device
+	 */
+	public String sendCommandByName(AbstractConfig config, String name) {
+		return await(sendCommandByNameAsync(config, name, 1), "");
+	}
+	
+	/**
+	 * Send a command from the config by name
+	 * @param config config holding the command
+	 * @param name name attribute of the &lt;command&gt; element
+	 * @param repeat number of times to repeat command
+	 * @return response from device
+	 */
+	public String sendCommandByName(AbstractConfig config, String name, int repeat) {
+		return await(sendCommandByNameAsync(config, name, repeat), "");
+	}
+	
+	/**
+	 * Send a command from the config by name without blocking the calling thread
+	 * @param config config holding the command
+	 * @param name name attribute of the &lt;command&gt; element
+	 * @return future completed with the response from device
+	 */
+	public CompletableFuture<String> sendCommandByNameAsync(AbstractConfig config, String name) {
+		return sendCommandByNameAsync(config, name, 1);
+	}
+	
+	/**
+	 * Send a command from the config by name without blocking the calling
+	 * thread. When the {@link #getResponseCacheTtl() response cache} is on,
+	 * commands marked idempotent="true" are answered from it while their last
+	 * response is fresh, and identical queries already on their way to the
+	 * device share its response.
+	 * @param config config holding the command
+	 * @param name name attribute of the &lt;command&gt; element
+	 * @param repeat number of times to repeat command
+	 * @return future completed with the response from device, or an empty
+	 *         response if the config has no such command
+	 */
+	public CompletableFuture<String> sendCommandByNameAsync(AbstractConfig config, String name, int repeat) {
+		ByteBuffer payload = config.getCommandPayload(name);
+		if (payload == null) {
+			if (isLogging(LogLevel.WARN)) log(LogLevel.WARN, "!!Unknown command " + name);
+			return CompletableFuture.completedFuture("");
+		}
+		ResponseCache cache = getResponseCache();
+		if (cache != null && repeat == 1 && config.isIdempotent(name)) {
+			return cache.get(config.getSnapshot().getCommands().get(name), 
+					() -> dispatchAsync(payload, 1, getSocketSendWait(), name).thenApply(this::decodeAndRelease));
+		}
+		return sendBytesAsync(payload, repeat, getSocketSendWait(), name).thenApply(this::decodeAndRelease);
+	}
+	
+	/**
+	 * Forgets every cached query response, so the next query of each goes to
+	 * the device. Done automatically whenever a command that is not a cached
+	 * query is sent or the device reports a change on its own.
+	 */
+	public void clearResponseCache() {
+		ResponseCache cache = responseCache.get();
+		if (cache != null) {
+			cache.clear();
+		}
+	}
+	
+	/**
+	 * Send a sequence of commands, such as a scene change macro, as one round
+	 * trip. The commands are written back to back (in a single write when the
+	 * device needs no spacing between commands) and the responses are
+	 * collected in one read pass afterwards.
+	 * @param commands commands to send, in order
+	 * @return with a {@link #getResponseFramer() framer}, one response per
+	 *         command; otherwise a single entry holding everything received
+	 */
+	public List<String> sendBatch(List<String> commands) {
+		return await(sendBatchAsync(commands), new ArrayList<String>());
+	}
+	
+	/**
+	 * Send a sequence of commands as one round trip without blocking the
+	 * calling thread
+	 * @param commands commands to send, in order
+	 * @return future completed with the responses, as for {@link #sendBatch(List)}
+	 */
+	public CompletableFuture<List<String>> sendBatchAsync(List<String> commands) {
+		clearResponseCache();
+		List<ByteBuffer> encoded = new ArrayList<ByteBuffer>(commands.size());
+		for (String command : commands) {
+			encoded.add(encode(command));
+		}
+		
+		CompletableFuture<List<ByteBuffer>> result;
+		if (isPipelined()) {
+			result = processPipelinedBatchAsync(encoded);
+		} else {
+			result = queueAsync(() -> processBatchAsync(encoded));
+		}
+		return result.thenApplyAsync(responses -> {
+			List<String> decoded = new ArrayList<String>(responses.size());
+			for (ByteBuffer response : responses) {
+				decoded.add(decodeAndRelease(response));
+			}
+			return decoded;
+		}, getCallbackExecutor());
+	}
+	
+	/**
+	 * Sends a command that may change the device's state, so cached query
+	 * responses are dropped first
+	 * @param command command to send, from position to limit
+	 * @param repeat number of times to repeat command
+	 * @param delay delay betweeen subsequent commands being sent
+	 * @param displayCommand "friendly" command to display, or null
+	 * @return future completed with the response from device
+	 */
+	private CompletableFuture<ByteBuffer> sendBytesAsync(ByteBuffer command, int repeat, int delay, String displayCommand) {
+		clearResponseCache();
+		return dispatchAsync(command, repeat, delay, displayCommand);
+	}
+	
+	/**
+	 * Sends through the pipeline or the per-device queue and completes on the
+	 * callback executor
+	 * @param command command to send, from position to limit
+	 * @param repeat number of times to repeat command
+	 * @param delay delay betweeen subsequent commands being sent
+	 * @param displayCommand "friendly" command to display, or null
+	 * @return future completed with the response from device
+	 */
+	private CompletableFuture<ByteBuffer> dispatchAsync(ByteBuffer command, int repeat, int delay, String displayCommand) {
+		ByteBuffer bytes = command.asReadOnlyBuffer();
+		CompletableFuture<ByteBuffer> result;
+		if (isPipelined()) {
+			result = processPipelinedCommandAsync(bytes, repeat, delay, displayCommand);
+		} else {
+			result = queueAsync(() -> processSendCommandAsync(bytes, repeat, delay, displayCommand));
+		}
+		return result.thenApplyAsync(response -> response, getCallbackExecutor());
+	}
+	
+	/**
+	 * Runs the task once every async command queued before it has finished
+	 * @param task starts the command
+	 * @return future completed with the task's result
+	 */
+	private <T> CompletableFuture<T> queueAsync(Supplier<CompletableFuture<T>> task) {
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		CompletableFuture<?> previous = lastAsyncCommand.getAndSet(result);
+		previous.handle((ignored, e) -> null)
+			.thenCompose(ignored -> task.get())
+			.whenComplete((value, e) -> {
+				if (e != null) {
+					result.completeExceptionally(unwrap(e));
+				} else {
+					result.complete(value);
+				}
+			});
+		return result;
+	}
+	
 	/**
 	 * Send command to the device
 	 * @param command command to send
@@ -265,110 +807,666 @@ public abstract class CommunicationDevice {
 	 */
 	private String processSendCommand(String command, int repeat, int delay, String displayCommand) {
 
-		if (connect()) {
-			try {
-				if (getDebug()) {
-					System.out.println("Sending " + displayCommand + " (" + command + ") " + repeat + " time(s)");
-					Util.displayStringDebug(command);
-				} else if (getInfo()) {
-					System.out.println("Sending " + displayCommand + (repeat==1 ? "" : repeat + " time(s)"));
+		// the async path paces the writes and the receive wait on the engine's
+		// timer, so the caller only waits for the response itself
+		return await(sendCommandAsync(command, repeat, delay, displayCommand), "");
+	}
+	
+	/**
+	 * Send command to the device, waiting on timers rather than sleeping
+	 * @param command command to send, from position to limit
+	 * @param repeat number of times to repeat command
+	 * @param delay delay betweeen subsequent commands being sent
+	 * @param displayCommand "friendly" command to display, or null
+	 * @return future completed with the response from device
+	 */
+	private CompletableFuture<ByteBuffer> processSendCommandAsync(ByteBuffer command, int repeat, int delay, String displayCommand) {
+		
+		return openConnectionAsync().thenCompose(connected -> {
+			if (!connected) {
+				return receiveAsync();
+			}
+			
+			logSending("Sending ", command, repeat, displayCommand);
+			
+			DeviceMetrics deviceMetrics = getMetrics();
+			long started = System.nanoTime();
+			DeviceConnection current = connection;
+			current.beginResponse();
+			CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
+			for (int i = 0; i < repeat; i++) {
+				int sendNumber = i + 1;
+				// the first send waits out the device's spacing, repeats the delay
+				sent = getPacer().send(connection, command.duplicate(), i == 0 ? getRepeatDelay() : delay).thenRun(() -> {
+					if (isLogging(LogLevel.INFO)) log(LogLevel.INFO, "Send #" + sendNumber + ": " + Util.getTimestamp());
+				});
+			}
+			
+			return sent.handle((ignored, e) -> {
+				if (e != null) {
+					deviceMetrics.failed();
+					logError("Could not send to " + logSource, unwrap(e));
+				} else {
+					deviceMetrics.sent((long) command.remaining() * repeat, System.nanoTime() - started);
+					if (isLogging(LogLevel.INFO)) log(LogLevel.INFO, "Sent!");
 				}
-							
-				for (int i = 0; i < repeat; i++) {
-					
-					if (i > 0) {
-						// sleep before sending another command if this isn't our first 
-						Util.sleep(delay);
-					}
-					
-					// write the message to the output stream & flush
-					outputStream.writeBytes(command);
-					outputStream.flush();
-					
-					if (getDebug() || getInfo()) System.out.println("Send #" + (i+1) + ": " + Util.getTimestamp());
+				return null;
+			}).thenCompose(ignored -> receiveAsync()).whenComplete((response, e) -> {
+				current.endResponse();
+				deviceMetrics.completed(System.nanoTime() - started);
+			});
+		});
+	}
+	
+	/**
+	 * Writes every command of a batch, then reads all the responses
+	 * @param commands commands to send, in order
+	 * @return future completed with the responses
+	 */
+	private CompletableFuture<List<ByteBuffer>> processBatchAsync(List<ByteBuffer> commands) {
+		
+		return openConnectionAsync().thenCompose(connected -> {
+			if (!connected) {
+				return receiveAsync().thenApply(response -> Collections.singletonList(response));
+			}
+			
+			if (isLogging(LogLevel.INFO)) log(LogLevel.INFO, "Sending batch of " + commands.size() + " command(s)");
+			
+			DeviceMetrics deviceMetrics = getMetrics();
+			long started = System.nanoTime();
+			int length = 0;
+			for (ByteBuffer command : commands) {
+				length += command.remaining();
+			}
+			int batchLength = length;
+			DeviceConnection current = connection;
+			current.beginResponse();
+			CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
+			if (getRepeatDelay() <= 0) {
+				// no spacing needed - coalesce the whole batch into one write
+				ByteBuffer combined = ByteBuffer.allocate(length);
+				for (ByteBuffer command : commands) {
+					combined.put(command.duplicate());
 				}
+				combined.flip();
+				sent = getPacer().send(connection, combined, 0);
+			} else {
+				// queue every write at once and let the pacer space them
+				for (ByteBuffer command : commands) {
+					sent = getPacer().send(connection, command.duplicate(), getRepeatDelay());
+				}
+			}
+			
+			return sent.handle((ignored, e) -> {
+				if (e != null) {
+					deviceMetrics.failed();
+					logError("Could not send to " + logSource, unwrap(e));
+				} else {
+					deviceMetrics.sent(batchLength, System.nanoTime() - started);
+					if (isLogging(LogLevel.INFO)) log(LogLevel.INFO, "Sent batch: " + Util.getTimestamp());
+				}
+				return null;
+			}).thenCompose(ignored -> readBatchResponses(commands.size())).whenComplete((responses, e) -> {
+				current.endResponse();
+				deviceMetrics.completed(System.nanoTime() - started);
+			});
+		});
+	}
 	
-				if (getDebug() || getInfo()) System.out.println("Sent!");
-			} catch (IOException ioException) {
-				ioException.printStackTrace();
+	/**
+	 * Reads the responses to a batch in one pass
+	 * @param count number of commands in the batch
+	 * @return future completed with one response per command when framed,
+	 *         otherwise a single response holding everything received
+	 */
+	private CompletableFuture<List<ByteBuffer>> readBatchResponses(int count) {
+		ResponseFramer framer = getResponseFramer();
+		if (framer == null) {
+			return receiveAsync().thenApply(response -> Collections.singletonList(response));
+		}
+		
+		List<ByteBuffer> responses = new ArrayList<ByteBuffer>(count);
+		CompletableFuture<List<ByteBuffer>> read = CompletableFuture.completedFuture(responses);
+		for (int i = 0; i < count; i++) {
+			read = read.thenCompose(collected -> readFramedResponseAsync(framer).thenApply(response -> {
+				collected.add(response);
+				return collected;
+			}));
+		}
+		return read;
+	}
+	
+	/**
+	 * Submits every command of a batch to the pipeline
+	 * @param commands commands to send, in order
+	 * @return future completed with one response per command
+	 */
+	private CompletableFuture<List<ByteBuffer>> processPipelinedBatchAsync(List<ByteBuffer> commands) {
+		
+		return openConnectionAsync().thenCompose(connected -> {
+			DeviceConnection current = connection;
+			if (!connected || current == null) {
+				if (isLogging(LogLevel.ERROR)) log(LogLevel.ERROR, "!!Not Connected to Receive ");
+				return CompletableFuture.completedFuture(Collections.<ByteBuffer>emptyList());
+			}
+			
+			if (isLogging(LogLevel.INFO)) log(LogLevel.INFO, "Pipelining batch of " + commands.size() + " command(s)");
+			
+			DeviceMetrics deviceMetrics = getMetrics();
+			long started = System.nanoTime();
+			CommandPipeline commandPipeline = getPipeline(current);
+			List<CompletableFuture<ByteBuffer>> futures = new ArrayList<CompletableFuture<ByteBuffer>>(commands.size());
+			for (ByteBuffer command : commands) {
+				deviceMetrics.sent(command.remaining(), 0);
+				futures.add(commandPipeline.submit(command.duplicate(), getRepeatDelay())
+						.whenComplete((response, e) -> recordPipelined(deviceMetrics, started, response, e)));
 			}
+			return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).thenApply(ignored -> {
+				List<ByteBuffer> responses = new ArrayList<ByteBuffer>(futures.size());
+				for (CompletableFuture<ByteBuffer> future : futures) {
+					responses.add(future.join());
+				}
+				return responses;
+			});
+		});
+	}
+	
+	/**
+	 * Displays the command about to be sent
+	 * @param action verb to display
+	 * @param command command to send, from position to limit
+	 * @param repeat number of times to repeat command
+	 * @param displayCommand "friendly" command to display, or null
+	 */
+	private void logSending(String action, ByteBuffer command, int repeat, String displayCommand) {
+		LogLevel level = getLogLevel();
+		if (level.includes(LogLevel.DEBUG)) {
+			String text = toDisplayString(command);
+			String rows = Util.getStringDebug(text);
+			getLog().log(LogLevel.DEBUG, logSource, action + (displayCommand == null ? text : displayCommand) 
+					+ " (" + text + ") " + repeat + " time(s)\n" + rows.substring(0, rows.length() - 1), null);
+		} else if (level.includes(LogLevel.INFO)) {
+			String text = displayCommand == null ? toDisplayString(command) : displayCommand;
+			getLog().log(LogLevel.INFO, logSource, action + text + (repeat==1 ? "" : repeat + " time(s)"), null);
 		}
-
-		String response = readResponse(); 
+	}
+	
+	/**
+	 * @return this device's response cache, or null if it is turned off
+	 */
+	private ResponseCache getResponseCache() {
+		int ttl = getResponseCacheTtl();
+		if (ttl <= 0) {
+			return null;
+		}
+		ResponseCache existing = responseCache.get();
+		if (existing == null) {
+			responseCache.compareAndSet(null, new ResponseCache(ttl, getResponseCacheSize()));
+			existing = responseCache.get();
+		}
+		return existing;
+	}
+	
+	/**
+	 * @return pacer spacing the writes to this device
+	 */
+	private SendPacer getPacer() {
+		SendPacer existing = pacer.get();
+		if (existing == null) {
+			pacer.compareAndSet(null, new SendPacer(getEngine()));
+			existing = pacer.get();
+		}
+		return existing;
+	}
+	
+	/**
+	 * @return true if several commands may be in flight at once
+	 */
+	private boolean isPipelined() {
+		return getPipelineDepth() > 1 && getResponseFramer() != null;
+	}
+	
+	/**
+	 * @param current connection the pipeline writes to
+	 * @return the pipeline for the connection, created if the connection is new
+	 */
+	private CommandPipeline getPipeline(DeviceConnection current) {
+		CommandPipeline existing = pipeline.get();
+		if (existing != null && existing.getConnection() == current) {
+			return existing;
+		}
+		CommandPipeline created = new CommandPipeline(current, getPacer(), getResponseFramer(), getResponseCorrelator(), 
+				getCharset(), getReceiveBufferPool(), getPipelineDepth(), getSocketReceiveTimeout(), this::unsolicitedFrame);
+		return pipeline.compareAndSet(existing, created) ? created : getPipeline(current);
+	}
+	
+	/**
+	 * Send command to the device through the pipeline without waiting for
+	 * earlier commands to be answered
+	 * @param command command to send, from position to limit
+	 * @param repeat number of times to repeat command
+	 * @param delay delay betweeen subsequent commands being sent
+	 * @param displayCommand "friendly" command to display, or null
+	 * @return future completed with the response to the last repeat
+	 */
+	private CompletableFuture<ByteBuffer> processPipelinedCommandAsync(ByteBuffer command, int repeat, int delay, String displayCommand) {
 		
-		return response;
+		return openConnectionAsync().thenCompose(connected -> {
+			DeviceConnection current = connection;
+			if (!connected || current == null) {
+				if (isLogging(LogLevel.ERROR)) log(LogLevel.ERROR, "!!Not Connected to Receive ");
+				return CompletableFuture.completedFuture(ByteBuffer.allocate(0));
+			}
+			
+			logSending("Pipelining ", command, repeat, displayCommand);
+			
+			DeviceMetrics deviceMetrics = getMetrics();
+			long started = System.nanoTime();
+			CommandPipeline commandPipeline = getPipeline(current);
+			CompletableFuture<ByteBuffer> response = null;
+			for (int i = 0; i < repeat; i++) {
+				deviceMetrics.sent(command.remaining(), 0);
+				response = commandPipeline.submit(command.duplicate(), i == 0 ? getRepeatDelay() : delay)
+						.whenComplete((answer, e) -> recordPipelined(deviceMetrics, started, answer, e));
+			}
+			return response != null ? response : CompletableFuture.completedFuture(ByteBuffer.allocate(0));
+		});
 	}
 
-
 	/**
 	 * Reads response from device
 	 * 
 	 * @return response from device
 	 **/
 	public String readResponse() {	
-
-		// wait the specified time before attempting to read from the socket
-		Util.sleep(getSocketReceiveWait());
-
-		String response = new String();
+		return await(receiveAsync().thenApply(this::decodeAndRelease), "");
+	}
+	
+	/**
+	 * Reads binary response from device. The response buffer comes from the
+	 * receive buffer pool; hand it back with {@link #releaseResponse(ByteBuffer)}
+	 * once it has been processed to keep reads allocation free.
+	 * 
+	 * @return response from device, positioned at the first byte
+	 **/
+	public ByteBuffer readResponseBytes() {	
+		return await(receiveAsync(), ByteBuffer.allocate(0));
+	}
+	
+	/**
+	 * Returns a binary response's buffer to the receive buffer pool. The
+	 * buffer must not be used afterwards.
+	 * @param response buffer from a binary sendCommand or readResponseBytes
+	 */
+	public void releaseResponse(ByteBuffer response) {
+		getReceiveBufferPool().release(response);
+	}
+	
+	/**
+	 * Reads response from device without blocking the calling thread
+	 * 
+	 * @return future completed on the callback executor with the response
+	 *         from device
+	 **/
+	public CompletableFuture<String> readResponseAsync() {
+		return receiveAsync().thenApplyAsync(this::decodeAndRelease, getCallbackExecutor());
+	}
+	
+	/**
+	 * Reads binary response from device without blocking the calling thread
+	 * 
+	 * @return future completed on the callback executor with the response
+	 *         from device
+	 **/
+	public CompletableFuture<ByteBuffer> readResponseBytesAsync() {
+		return receiveAsync().thenApplyAsync(response -> response, getCallbackExecutor());
+	}
+	
+	/**
+	 * Reads binary response from device, completing on the I/O thread that
+	 * finished the read
+	 * 
+	 * @return future completed with the response from device
+	 **/
+	private CompletableFuture<ByteBuffer> receiveAsync() {
+		ResponseFramer framer = getResponseFramer();
+		if (framer != null) {
+			return readFramedResponseAsync(framer);
+		}
 		
-		if (socket.isConnected()) {
-			try {
-				if (getDebug()) System.out.println("\nReading Response Packet");
-				
-				// build a buffer for the data received in the response
-				StringBuffer responseBuffer = new StringBuffer();
-				int bytesReceived = 0;
+		CompletableFuture<ByteBuffer> result = new CompletableFuture<ByteBuffer>();
+		
+		// start collecting packets right away, but give the device the receive
+		// wait to finish its response before a short packet ends it
+		DeviceConnection current = connection;
+		if (current != null) {
+			if (isLogging(LogLevel.DEBUG)) log(LogLevel.DEBUG, "\nReading Response Packet");
+			long deadline = System.currentTimeMillis() + getSocketReceiveWait();
+			new AsyncResponseReader(current, result, deadline).readNext();
+		}
+		else {
+			if (isLogging(LogLevel.ERROR)) log(LogLevel.ERROR, "!!Not Connected to Receive ");
+			result.complete(ByteBuffer.allocate(0));
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Reads one framed response without blocking the calling thread
+	 * @param framer decides where the response ends
+	 * @return future completed with the response from device
+	 */
+	private CompletableFuture<ByteBuffer> readFramedResponseAsync(ResponseFramer framer) {
+		
+		DeviceConnection current = connection;
+		if (current == null) {
+			if (isLogging(LogLevel.ERROR)) log(LogLevel.ERROR, "!!Not Connected to Receive ");
+			return CompletableFuture.completedFuture(ByteBuffer.allocate(0));
+		}
+		
+		if (isLogging(LogLevel.DEBUG)) log(LogLevel.DEBUG, "\nReading Response Frame");
+		DeviceMetrics deviceMetrics = getMetrics();
+		long started = System.nanoTime();
+		return current.readFrameAsync(framer, getCurrentReceiveTimeout(), getReceiveBufferPool()).handle((frame, e) -> {
+			ByteBuffer response = frame;
+			boolean timedOut = false;
+			if (e != null) {
+				Throwable cause = unwrap(e);
+				if (cause instanceof SocketTimeoutException) {
+					timedOut = true;
+					response = ByteBuffer.wrap(current.drain());
+					int received = response.remaining();
+					if (isLogging(LogLevel.DEBUG)) log(LogLevel.DEBUG, "Response frame incomplete - Bytes received: " + received);
+				} else {
+					deviceMetrics.failed();
+					logError("Could not read from " + logSource, cause);
+				}
+			}
+			if (response == null) {
+				response = ByteBuffer.allocate(0);
+			}
+			long elapsed = System.nanoTime() - started;
+			deviceMetrics.responded(-1, -1, elapsed, response.remaining(), 0, timedOut);
+			if (timedOut) {
+				deviceMetrics.getResponseTimeEstimator().timedOut();
+			} else if (e == null && frame != null) {
+				deviceMetrics.getResponseTimeEstimator().sample(elapsed);
+			}
+			if (isLogging(LogLevel.DEBUG)) log(LogLevel.DEBUG, "frame " + response.remaining() + " bytes :" 
+					+ Util.displayAsciiCodes(toDisplayString(response), false, true) + "\n\n");
+			return response;
+		});
+	}
+	
+	/**
+	 * Collects packets from the connection, continuing from each read's
+	 * callback instead of a loop. Packets are taken as soon as they arrive; the
+	 * response ends with the first short packet or timeout after the deadline.
+	 */
+	private class AsyncResponseReader {
+		
+		private final DeviceConnection source;
+		private final CompletableFuture<ByteBuffer> result;
+		private final long deadline;
+		private final int packetSize = getReceiveBufferSize();
+		private final ReceiveBufferPool pool = getReceiveBufferPool();
+		private ByteBuffer responseBuffer = pool.acquire(packetSize);
+		private int packetCounter = 0;
+		private final DeviceMetrics deviceMetrics = getMetrics();
+		private final long started = System.nanoTime();
+		private long firstPacket;
+		private long lastPacket;
+		
+		AsyncResponseReader(DeviceConnection source, CompletableFuture<ByteBuffer> result, long deadline) {
+			this.source = source;
+			this.result = result;
+			this.deadline = deadline;
+		}
+		
+		void readNext() {
+			int timeout = getCurrentReceiveTimeout();
+			long untilDeadline = deadline - System.currentTimeMillis();
+			if (untilDeadline > 0) {
+				if (responseBuffer.position() > 0) {
+					// already have data - it is complete if nothing more arrives by the deadline
+					timeout = (int) untilDeadline;
+				} else if (timeout > 0) {
+					timeout += (int) untilDeadline;
+				}
+			}
+			
+			// packets are read straight into the response buffer, one packet size at a time
+			responseBuffer = pool.ensureRemaining(responseBuffer, packetSize);
+			int packetStart = responseBuffer.position();
+			responseBuffer.limit(packetStart + packetSize);
+			
+			source.readAsync(responseBuffer, timeout).whenComplete((bufferLength, e) -> {
+				responseBuffer.limit(responseBuffer.capacity());
+				if (e != null) {
+					Throwable cause = unwrap(e);
+					if (cause instanceof SocketTimeoutException) {
+						if (isLogging(LogLevel.DEBUG)) log(LogLevel.DEBUG, "Done reading response - Bytes received: " + responseBuffer.position() + "\n\n");
+					} else {
+						deviceMetrics.failed();
+						logError("Could not read from " + logSource, cause);
+					}
+					finish();
+					return;
+				}
+				if (bufferLength <= 0) {
+					finish();
+					return;
+				}
 				
-				socket.setSoTimeout(getSocketReceiveTimeout());
+				int packetNumber = ++packetCounter;
+				lastPacket = System.nanoTime();
+				if (packetNumber == 1) {
+					firstPacket = lastPacket;
+				}
+				if (isLogging(LogLevel.DEBUG)) log(LogLevel.DEBUG, "packet[" + packetNumber + "] " + bufferLength + " bytes :" 
+						+ Util.displayAsciiCodes(new String(responseBuffer.array(), packetStart, bufferLength, StandardCharsets.ISO_8859_1), false, true));
 				
-				// Read from the inputStream and write to the responseBuffer StringBuffer
-				boolean continueReading = true;
-				int packetCounter = 0;
-				do {
+				if (bufferLength < packetSize && System.currentTimeMillis() >= deadline) {
+					finish();
+				} else {
+					readNext();
+				}
+			});
+		}
+		
+		private void finish() {
+			long now = System.nanoTime();
+			// a response that never started is a timeout; otherwise the wait after
+			// the last packet is the tail the receive wait and timeout cost
+			boolean received = packetCounter > 0;
+			deviceMetrics.responded(received ? firstPacket - started : -1, received ? now - lastPacket : -1, 
+					now - started, responseBuffer.position(), packetCounter, !received);
+			// only the first packet is timed: the last packet may just be the last
+			// before the receive wait cut the response short, and timing that would
+			// make the estimate chase the wait rather than the device
+			if (received) {
+				deviceMetrics.getResponseTimeEstimator().sample(firstPacket - started);
+			} else {
+				deviceMetrics.getResponseTimeEstimator().timedOut();
+			}
+			responseBuffer.flip();
+			result.complete(responseBuffer);
+		}
+	}
+	
+	/**
+	 * Takes data that arrived while no command was waiting for a response and
+	 * passes it to the listeners. Without listeners the data is left for the
+	 * next response, as before listeners existed.
+	 * @param current connection the data arrived on
+	 */
+	private void unsolicitedData(DeviceConnection current) {
+		if (listeners.isEmpty()) {
+			return;
+		}
+		ResponseFramer framer = getResponseFramer();
+		if (framer == null) {
+			notifyListeners(decode(ByteBuffer.wrap(current.drain())));
+			return;
+		}
+		byte[] frame;
+		while ((frame = current.pollFrame(framer)) != null) {
+			notifyListeners(decode(ByteBuffer.wrap(frame)));
+		}
+	}
+	
+	/**
+	 * @param frame pipelined response that answers no command in flight
+	 */
+	private void unsolicitedFrame(ByteBuffer frame) {
+		if (listeners.isEmpty()) {
+			getReceiveBufferPool().release(frame);
+			return;
+		}
+		notifyListeners(decodeAndRelease(frame));
+	}
+	
+	/**
+	 * Hands the message to every listener on the callback executor, after any
+	 * earlier messages so listeners see them in the order they arrived
+	 * @param message unsolicited message
+	 */
+	private void notifyListeners(String message) {
+		if (isLogging(LogLevel.DEBUG)) log(LogLevel.DEBUG, "Unsolicited: " + message);
+		// the device changed on its own, so cached query responses may be wrong
+		clearResponseCache();
+		CompletableFuture<Void> notified = new CompletableFuture<Void>();
+		CompletableFuture<?> previous = lastNotification.getAndSet(notified);
+		previous.whenCompleteAsync((ignored, e) -> {
+			try {
+				for (DeviceListener listener : listeners) {
 					try {
-						byte[] bufferBytes = new byte[1024]; 
-						int bufferLength = inputStream.read(bufferBytes);
-						if (bufferLength <= 0) {
-							continueReading = false;
-							continue;
-						}
-						
-						String bufferString = new String(bufferBytes).substring(0, bufferLength);
-						bytesReceived += bufferLength;
-						
-						responseBuffer.append(bufferString);
-						
-						if (bufferLength < bufferBytes.length) {
-							continueReading = false;
-						}
-						
-						if (getDebug()) System.out.println("packet[" + ++packetCounter + "] " + bufferLength + " bytes :" + Util.displayAsciiCodes(bufferString, false, true));
-					} catch (SocketTimeoutException e) {
-						if (getDebug()) System.out.println("Done reading response - Bytes received: " + bytesReceived + "\n\n");
-						continueReading = false;
-					} catch (Exception e) {
-						e.printStackTrace();;
-						continueReading = false;
+						listener.unsolicitedMessage(this, message);
+					} catch (Exception ex) {
+						logError("Listener failed on " + message, ex);
 					}
-				} while(continueReading);
-				
-
-				/* Response is done... process it into dataMessages */
-				// *******************************************
-				char[] responseChars = responseBuffer.toString().substring(0, bytesReceived).toCharArray();
-				response = new String(responseChars);
-				
-								
-			} catch (Exception e) {
-				e.printStackTrace();
+				}
+			} finally {
+				notified.complete(null);
 			}
+		}, getCallbackExecutor());
+	}
+	
+	/**
+	 * @param configured the subclass's fixed value, in miliseconds
+	 * @return the estimated timeout within the minimum and configured value,
+	 *         or the configured value if adaptive receive is off
+	 */
+	private int adapt(int configured) {
+		if (!isAdaptiveReceive()) {
+			return configured;
 		}
-		else {
-			System.out.println("!!Not Connected to Receive ");
+		return getMetrics().getResponseTimeEstimator().getTimeout(Math.min(getMinimumReceiveWait(), configured), configured);
+	}
+	
+	/**
+	 * Queues a message on the log. Callers check {@link #isLogging(LogLevel)}
+	 * first, so nothing is built for a level this device does not log.
+	 * @param level level of the message
+	 * @param message message to log
+	 */
+	private void log(LogLevel level, String message) {
+		getLog().log(level, logSource, message, null);
+	}
+	
+	/**
+	 * @param level level of a message
+	 * @return true if this device logs messages of that level
+	 */
+	private boolean isLogging(LogLevel level) {
+		return getLogLevel().includes(level);
+	}
+	
+	/**
+	 * @param message what failed
+	 * @param e why it failed
+	 */
+	private void logError(String message, Throwable e) {
+		if (isLogging(LogLevel.ERROR)) {
+			getLog().log(LogLevel.ERROR, logSource, message, e);
 		}
-		
-		return response;
+	}
+	
+	/**
+	 * Records a pipelined response, which has no separate read phase to time
+	 */
+	private static void recordPipelined(DeviceMetrics deviceMetrics, long started, ByteBuffer response, Throwable e) {
+		long elapsed = System.nanoTime() - started;
+		if (e != null) {
+			deviceMetrics.failed();
+		} else {
+			deviceMetrics.responded(-1, -1, elapsed, response.remaining(), 0, false);
+		}
+		deviceMetrics.completed(elapsed);
+	}
+	
+	/**
+	 * Waits for an async result on behalf of a blocking method
+	 * @param future result to wait for
+	 * @param empty what to return if it failed
+	 * @return the result, or empty once the failure has been logged
+	 */
+	private <T> T await(CompletableFuture<T> future, T empty) {
+		try {
+			return future.join();
+		} catch (CompletionException | CancellationException e) {
+			logError("Command failed", unwrap(e));
+			return empty;
+		}
+	}
+	
+	private static Throwable unwrap(Throwable e) {
+		return (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+	}
+	
+	/**
+	 * Converts a command to the bytes sent on the wire
+	 * @param command command to convert
+	 * @return bytes to send
+	 */
+	private ByteBuffer encode(String command) {
+		return ByteBuffer.wrap(command.getBytes(getCharset()));
+	}
+	
+	/**
+	 * Converts a pooled response to a String and returns its buffer to the pool
+	 * @param response bytes from position to limit
+	 * @return decoded response
+	 */
+	private String decodeAndRelease(ByteBuffer response) {
+		String decoded = decode(response);
+		getReceiveBufferPool().release(response);
+		return decoded;
+	}
+	
+	/**
+	 * @param bytes bytes from position to limit
+	 * @return the bytes one char per byte, for debug output
+	 */
+	private static String toDisplayString(ByteBuffer bytes) {
+		byte[] copy = new byte[bytes.remaining()];
+		bytes.duplicate().get(copy);
+		return new String(copy, StandardCharsets.ISO_8859_1);
+	}
+	
+	/**
+	 * Converts response bytes to a String
+	 * @param response bytes from position to limit
+	 * @return decoded response
+	 */
+	private String decode(ByteBuffer response) {
+		if (response.hasArray()) {
+			return new String(response.array(), response.arrayOffset() + response.position(), response.remaining(), getCharset());
+		}
+		byte[] bytes = new byte[response.remaining()];
+		response.duplicate().get(bytes);
+		return new String(bytes, getCharset());
 	}
 
 }
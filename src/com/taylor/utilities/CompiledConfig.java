@@ -0,0 +1,300 @@
+package com.taylor.utilities;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiles a config XML file into a binary snapshot stored beside it, which
+ * loads in a fraction of the time the XML takes to parse. The snapshot records
+ * the modification time and length of the XML it came from and is ignored
+ * once the XML changes.
+ * <p>
+ * Layout, big endian: magic, version, source modified time and length, flags,
+ * then a table of every distinct string followed by the commands, labels,
+ * macros, idempotent command names and responses as indexes into that table.
+ * Command values are stored as written in the XML rather than as the bytes
+ * sent, since those depend on the config class's
+ * {@link AbstractConfig#encodeCommand(String)}; each class encodes a command
+ * once, the first time it is sent.
+ */
+public final class CompiledConfig {
+
+	/** appended to the XML file's name to get the snapshot's **/
+	public static final String EXTENSION = ".snapshot";
+
+	private static final int MAGIC = 0x43464753;
+	private static final short VERSION = 3;
+	private static final int FLAG_DEBUG = 1;
+	private static final int FLAG_INFO = 2;
+
+	private CompiledConfig() {
+	}
+
+	/**
+	 * Compiles config files from the command line
+	 * @param args paths of the XML files to compile
+	 */
+	public static void main(String[] args) {
+		for (String configFilePath : args) {
+			try {
+				File compiled = compile(configFilePath);
+				System.out.println("Compiled " + configFilePath + " to " + compiled.getPath());
+			} catch (Exception e) {
+				System.out.println("Could not compile " + configFilePath + " (" + e.getMessage() + ")");
+			}
+		}
+	}
+
+	/**
+	 * Compiles a config file into a snapshot beside it. Once a snapshot exists
+	 * it is recompiled automatically whenever the XML is loaded after a change.
+	 * @param configFilePath path of the XML file
+	 * @return the snapshot file
+	 * @throws Exception if the XML could not be parsed or the snapshot written
+	 */
+	public static File compile(String configFilePath) throws Exception {
+		File source = new File(configFilePath).getAbsoluteFile();
+		ConfigSnapshot snapshot = ConfigSnapshot.parse(source, false);
+		File compiled = getCompiledFile(source);
+		write(snapshot, compiled);
+		return compiled;
+	}
+
+	/**
+	 * @param source config XML file
+	 * @return where the source's snapshot is stored
+	 */
+	public static File getCompiledFile(File source) {
+		return new File(source.getPath() + EXTENSION);
+	}
+
+	/**
+	 * Loads the source's snapshot if one exists and matches the source
+	 * @param source config XML file
+	 * @return the snapshot, or null if there is none or it is stale or unreadable
+	 */
+	static ConfigSnapshot load(File source) {
+		File compiled = getCompiledFile(source);
+		if (!compiled.isFile()) {
+			return null;
+		}
+		try {
+			return read(compiled, source);
+		} catch (Exception e) {
+			AsyncLog.getDefault().log(LogLevel.WARN, source.getPath(), "Ignoring compiled config " + compiled.getPath() + " (" + e + ")", null);
+			return null;
+		}
+	}
+
+	/**
+	 * Rewrites the source's snapshot if one has been compiled before
+	 * @param snapshot freshly parsed snapshot of the source
+	 * @param source config XML file
+	 */
+	static void update(ConfigSnapshot snapshot, File source) {
+		File compiled = getCompiledFile(source);
+		if (!compiled.isFile()) {
+			return;
+		}
+		try {
+			write(snapshot, compiled);
+		} catch (IOException e) {
+			AsyncLog.getDefault().log(LogLevel.WARN, source.getPath(), 
+					"Could not update compiled config " + compiled.getPath() + " (" + e.getMessage() + ")", null);
+		}
+	}
+
+	/**
+	 * Writes the snapshot to a temporary file and renames it into place, so a
+	 * reader never sees a half written snapshot
+	 */
+	private static void write(ConfigSnapshot snapshot, File compiled) throws IOException {
+		StringTable strings = new StringTable();
+		for (Map.Entry<String, String> command : snapshot.getCommands().entrySet()) {
+			strings.index(command.getKey());
+			strings.index(command.getValue());
+		}
+		for (Map.Entry<String, String> label : snapshot.getLabels().entrySet()) {
+			strings.index(label.getKey());
+			strings.index(label.getValue());
+		}
+		for (Map.Entry<String, List<String>> macro : snapshot.getMacros().entrySet()) {
+			strings.index(macro.getKey());
+			for (String step : macro.getValue()) {
+				strings.index(step);
+			}
+		}
+		for (String name : snapshot.getIdempotentCommands()) {
+			strings.index(name);
+		}
+		for (Map.Entry<String, String> response : snapshot.getResponses().entrySet()) {
+			strings.index(response.getKey());
+			strings.index(response.getValue());
+		}
+
+		File temp = File.createTempFile(compiled.getName(), ".tmp", compiled.getAbsoluteFile().getParentFile());
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeShort(VERSION);
+				out.writeLong(snapshot.getLastModified());
+				out.writeLong(snapshot.getLength());
+				out.writeByte((snapshot.getDebug() ? FLAG_DEBUG : 0) | (snapshot.getInfo() ? FLAG_INFO : 0));
+
+				out.writeInt(strings.values.size());
+				for (String value : strings.values) {
+					byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+
+				writePairs(out, snapshot.getCommands(), strings);
+				writePairs(out, snapshot.getLabels(), strings);
+
+				out.writeInt(snapshot.getMacros().size());
+				for (Map.Entry<String, List<String>> macro : snapshot.getMacros().entrySet()) {
+					out.writeInt(strings.index(macro.getKey()));
+					out.writeInt(macro.getValue().size());
+					for (String step : macro.getValue()) {
+						out.writeInt(strings.index(step));
+					}
+				}
+
+				out.writeInt(snapshot.getIdempotentCommands().size());
+				for (String name : snapshot.getIdempotentCommands()) {
+					out.writeInt(strings.index(name));
+				}
+
+				writePairs(out, snapshot.getResponses(), strings);
+			} finally {
+				out.close();
+			}
+			Files.move(temp.toPath(), compiled.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+	}
+
+	private static void writePairs(DataOutputStream out, Map<String, String> pairs, StringTable strings) throws IOException {
+		out.writeInt(pairs.size());
+		for (Map.Entry<String, String> pair : pairs.entrySet()) {
+			out.writeInt(strings.index(pair.getKey()));
+			out.writeInt(strings.index(pair.getValue()));
+		}
+	}
+
+	/**
+	 * Reads the snapshot file in one go and builds the tables from it. The
+	 * file is read rather than memory mapped, since a mapping stays open
+	 * until garbage collected and on Windows stops update() replacing the
+	 * file meanwhile.
+	 * @return the snapshot, or null if it does not match the source
+	 */
+	private static ConfigSnapshot read(File compiled, File source) throws IOException {
+		// read the source stamp first, so an edit made while loading shows as stale
+		long sourceModified = source.lastModified();
+		long sourceLength = source.length();
+
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(compiled.toPath()));
+
+		try {
+			if (in.getInt() != MAGIC) {
+				throw new IOException("not a compiled config");
+			}
+			// an older format is treated as stale and recompiled
+			if (in.getShort() != VERSION || in.getLong() != sourceModified || in.getLong() != sourceLength) {
+				return null;
+			}
+			int flags = in.get();
+
+			String[] strings = new String[in.getInt()];
+			byte[] bytes = new byte[256];
+			for (int i = 0; i < strings.length; i++) {
+				int length = in.getInt();
+				if (length > bytes.length) {
+					bytes = new byte[Math.max(length, bytes.length * 2)];
+				}
+				in.get(bytes, 0, length);
+				strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+			}
+
+			Map<String, String> commands = readPairs(in, strings);
+			Map<String, String> labels = readPairs(in, strings);
+
+			int macroCount = in.getInt();
+			Map<String, List<String>> macros = new HashMap<String, List<String>>(capacity(macroCount));
+			for (int i = 0; i < macroCount; i++) {
+				String name = strings[in.getInt()];
+				int stepCount = in.getInt();
+				List<String> steps = new ArrayList<String>(stepCount);
+				for (int j = 0; j < stepCount; j++) {
+					steps.add(strings[in.getInt()]);
+				}
+				macros.put(name, Collections.unmodifiableList(steps));
+			}
+
+			int idempotentCount = in.getInt();
+			Set<String> idempotent = new HashSet<String>(capacity(idempotentCount));
+			for (int i = 0; i < idempotentCount; i++) {
+				idempotent.add(strings[in.getInt()]);
+			}
+
+			Map<String, String> responses = readPairs(in, strings);
+
+			return new ConfigSnapshot(source.getPath(), sourceModified, sourceLength, null,
+					(flags & FLAG_DEBUG) != 0, (flags & FLAG_INFO) != 0, commands, labels, macros, idempotent, responses);
+		} catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+			throw new IOException("truncated or corrupt", e);
+		}
+	}
+
+	private static Map<String, String> readPairs(ByteBuffer in, String[] strings) {
+		int count = in.getInt();
+		Map<String, String> pairs = new HashMap<String, String>(capacity(count));
+		for (int i = 0; i < count; i++) {
+			String key = strings[in.getInt()];
+			pairs.put(key, strings[in.getInt()]);
+		}
+		return pairs;
+	}
+
+	private static int capacity(int entries) {
+		return (int) (entries / 0.75f) + 1;
+	}
+
+	/**
+	 * Gives each distinct string one index, so repeated names and values are
+	 * stored once
+	 */
+	private static class StringTable {
+
+		private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+		private final List<String> values = new ArrayList<String>();
+
+		int index(String value) {
+			Integer index = indexes.get(value);
+			if (index == null) {
+				index = values.size();
+				indexes.put(value, index);
+				values.add(value);
+			}
+			return index;
+		}
+	}
+}
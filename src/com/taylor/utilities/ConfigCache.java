@@ -0,0 +1,223 @@
+package com.taylor.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Parsed config files shared by every config object in the process, so a file
+ * is parsed once rather than on every construction. Files are watched and
+ * re-parsed when they change; the new snapshot replaces the old one in a
+ * single step, so readers see either the old tables or the new ones.
+ */
+public class ConfigCache {
+
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final Set<Path> watchedDirectories = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+	private final ReentrantLock watchLock = new ReentrantLock();
+	private final boolean watch;
+	private WatchService watchService;
+
+	private static class DefaultHolder {
+		private static final ConfigCache instance = new ConfigCache(true);
+	}
+
+	/** @return the process wide cache used when a config does not supply its own **/
+	public static ConfigCache getDefault() {
+		return DefaultHolder.instance;
+	}
+
+	/**
+	 * Constructor
+	 * @param watch true to re-parse files as soon as they change on disk,
+	 *            false to only notice changes when a file is next tracked
+	 */
+	public ConfigCache(boolean watch) {
+		this.watch = watch;
+	}
+
+	/**
+	 * Gets the latest snapshot of a config file, parsing it only if it is not
+	 * cached or has changed since it was
+	 * @param configFilePath path of the XML file to read
+	 * @return the file's current snapshot
+	 * @throws Exception if the file is missing or not valid XML
+	 */
+	public ConfigSnapshot get(String configFilePath) throws Exception {
+		return track(configFilePath, true).get();
+	}
+
+	/**
+	 * Gets a config file, parsing it only if it is not cached or has changed
+	 * since it was, and keeps it up to date as the file changes
+	 * @param configFilePath path of the XML file to read
+	 * @param retainDocument true if the snapshot must keep the parsed document,
+	 *            false to stream the file into its tables when first parsed
+	 * @return supplier of the file's latest snapshot
+	 * @throws Exception if the file is missing or not valid XML
+	 */
+	public Supplier<ConfigSnapshot> track(String configFilePath, boolean retainDocument) throws Exception {
+		File file = new File(configFilePath).getAbsoluteFile();
+		String key = file.getPath();
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			entry = new Entry(file);
+			Entry existing = entries.putIfAbsent(key, entry);
+			if (existing != null) {
+				entry = existing;
+			}
+		}
+		entry.refresh(retainDocument);
+		watch(file);
+		return entry;
+	}
+
+	/**
+	 * Forgets every cached snapshot. Configs already made keep the snapshots
+	 * they have.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Starts watching the directory holding the file, if not already
+	 */
+	private void watch(File file) {
+		Path directory = file.toPath().getParent();
+		if (!watch || directory == null || watchedDirectories.contains(directory)) {
+			return;
+		}
+		watchLock.lock();
+		try {
+			if (!watchedDirectories.add(directory)) {
+				return;
+			}
+			if (watchService == null) {
+				watchService = FileSystems.getDefault().newWatchService();
+				Thread watcher = new Thread(this::watchLoop, "config-watcher");
+				watcher.setDaemon(true);
+				watcher.start();
+			}
+			// editors often save by renaming a new file over the old one
+			directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (IOException e) {
+			AsyncLog.getDefault().log(LogLevel.WARN, file.getPath(), "Could not watch " + directory + " for changes", e);
+		} finally {
+			watchLock.unlock();
+		}
+	}
+
+	/**
+	 * Re-parses cached files as change events arrive
+	 */
+	private void watchLoop() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = watchService.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			Path directory = (Path) key.watchable();
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					// events were lost - check every file in the directory
+					for (Entry entry : entries.values()) {
+						if (directory.equals(entry.file.toPath().getParent())) {
+							entry.reload();
+						}
+					}
+					continue;
+				}
+				Entry entry = entries.get(directory.resolve((Path) event.context()).toString());
+				if (entry != null) {
+					entry.reload();
+				}
+			}
+			key.reset();
+		}
+	}
+
+	/**
+	 * Latest snapshot of one file
+	 */
+	private static class Entry implements Supplier<ConfigSnapshot> {
+
+		private final File file;
+		private final ReentrantLock lock = new ReentrantLock();
+		private volatile ConfigSnapshot snapshot;
+
+		Entry(File file) {
+			this.file = file;
+		}
+
+		@Override
+		public ConfigSnapshot get() {
+			return snapshot;
+		}
+
+		/**
+		 * Parses the file if it has changed since the current snapshot, or if
+		 * the document is needed and the current snapshot was streamed. When
+		 * the document is not needed a fresh compiled snapshot is used instead
+		 * of the XML, and a stale one is recompiled.
+		 * @param retainDocument true if the document must be kept
+		 * @return true if a new snapshot was parsed
+		 * @throws Exception if the file could not be parsed
+		 */
+		boolean refresh(boolean retainDocument) throws Exception {
+			ConfigSnapshot current = snapshot;
+			if (isCurrent(current, retainDocument)) {
+				return false;
+			}
+			lock.lock();
+			try {
+				current = snapshot;
+				if (isCurrent(current, retainDocument)) {
+					return false;
+				}
+				// once any config needs the document, later parses keep it too
+				boolean keepDocument = retainDocument || (current != null && current.getDocument() != null);
+				ConfigSnapshot loaded = keepDocument ? null : CompiledConfig.load(file);
+				if (loaded == null) {
+					loaded = ConfigSnapshot.parse(file, keepDocument);
+					CompiledConfig.update(loaded, file);
+				}
+				snapshot = loaded;
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private boolean isCurrent(ConfigSnapshot current, boolean retainDocument) {
+			return current != null && !current.isStale(file) && (!retainDocument || current.getDocument() != null);
+		}
+
+		/**
+		 * Parses the file after a change event, keeping the current snapshot
+		 * if the file is mid-write or broken
+		 */
+		void reload() {
+			try {
+				if (refresh(false) && snapshot.getDebug()) {
+					AsyncLog.getDefault().log(LogLevel.DEBUG, file.getPath(), "Reloaded config " + file.getPath(), null);
+				}
+			} catch (Exception e) {
+				AsyncLog.getDefault().log(LogLevel.WARN, file.getPath(), 
+						"Could not reload config " + file.getPath() + " (" + e.getMessage() + ")", null);
+			}
+		}
+	}
+}
@@ -0,0 +1,381 @@
+package com.taylor.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * One parse of a config file. A snapshot's tables never change; when the
+ * file is edited a new snapshot replaces the old one in the {@link ConfigCache}.
+ */
+public final class ConfigSnapshot {
+
+	private final String filePath;
+	private final long lastModified;
+	private final long length;
+	private final Document document;
+	private final boolean debug;
+	private final boolean info;
+	private final Map<String, String> commands;
+	private final Map<String, String> labels;
+	private final Map<String, List<String>> macros;
+	private final Set<String> idempotent;
+	private final Map<String, String> responses;
+	private final ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, ByteBuffer>> payloads = 
+			new ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, ByteBuffer>>();
+	private volatile ResponseIndex responseIndex;
+
+	ConfigSnapshot(String filePath, long lastModified, long length, Document document, boolean debug, boolean info,
+			Map<String, String> commands, Map<String, String> labels, Map<String, List<String>> macros, Set<String> idempotent,
+			Map<String, String> responses) {
+		this.filePath = filePath;
+		this.lastModified = lastModified;
+		this.length = length;
+		this.document = document;
+		this.debug = debug;
+		this.info = info;
+		this.commands = Collections.unmodifiableMap(commands);
+		this.labels = Collections.unmodifiableMap(labels);
+		this.macros = Collections.unmodifiableMap(macros);
+		this.idempotent = Collections.unmodifiableSet(idempotent);
+		this.responses = Collections.unmodifiableMap(responses);
+	}
+
+	public String getFilePath() {
+		return filePath;
+	}
+
+	/** @return modification time of the file when it was parsed **/
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/** @return length of the file when it was parsed **/
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the parsed document, shared by every config using this snapshot
+	 *         so it must not be modified, or null if the file was streamed
+	 *         without keeping one
+	 */
+	public Document getDocument() {
+		return document;
+	}
+
+	public boolean getDebug() {
+		return debug;
+	}
+
+	public boolean getInfo() {
+		return info;
+	}
+
+	/** @return command values by name **/
+	public Map<String, String> getCommands() {
+		return commands;
+	}
+
+	/** @return labels by command value **/
+	public Map<String, String> getLabels() {
+		return labels;
+	}
+
+	/** @return command values of each macro by macro name **/
+	public Map<String, List<String>> getMacros() {
+		return macros;
+	}
+
+	/** @return names of the commands marked idempotent="true" **/
+	public Set<String> getIdempotentCommands() {
+		return idempotent;
+	}
+
+	/**
+	 * @return the response a device gives, from each command's response
+	 *         attribute, by command value - used by the {@link DeviceSimulator}
+	 */
+	public Map<String, String> getResponses() {
+		return responses;
+	}
+
+	/**
+	 * @return index decoding responses to this snapshot's commands, built the
+	 *         first time it is asked for
+	 */
+	public ResponseIndex getResponseIndex() {
+		ResponseIndex index = responseIndex;
+		if (index == null) {
+			// two threads may both build it - either result is the same
+			index = new ResponseIndex(commands, labels);
+			responseIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * @param encoder config class that encodes the payloads
+	 * @return encoded command payloads by name, filled in as they are used and
+	 *         dropped with this snapshot when the file changes
+	 */
+	ConcurrentHashMap<String, ByteBuffer> getPayloads(Class<?> encoder) {
+		ConcurrentHashMap<String, ByteBuffer> encoded = payloads.get(encoder);
+		if (encoded == null) {
+			encoded = new ConcurrentHashMap<String, ByteBuffer>();
+			ConcurrentHashMap<String, ByteBuffer> existing = payloads.putIfAbsent(encoder, encoded);
+			if (existing != null) {
+				encoded = existing;
+			}
+		}
+		return encoded;
+	}
+
+	/**
+	 * @param file config file
+	 * @return true if the file has changed since this snapshot was parsed
+	 */
+	boolean isStale(File file) {
+		return file.lastModified() != lastModified || file.length() != length;
+	}
+
+	/**
+	 * Parses a config file
+	 * @param file XML file to read
+	 * @param retainDocument true to build and keep the whole document, false
+	 *            to stream the file straight into the tables without one
+	 * @return snapshot of the file
+	 * @throws Exception if the file is missing or not valid XML
+	 */
+	static ConfigSnapshot parse(File file, boolean retainDocument) throws Exception {
+		// read the file stamp first, so an edit made while parsing shows as stale
+		long lastModified = file.lastModified();
+		long length = file.length();
+		if (!file.exists()) {
+			throw new FileNotFoundException(file.getPath() + " not found");
+		}
+		Tables tables = new Tables();
+		Document configDocument = null;
+		if (retainDocument) {
+			configDocument = parseDocument(file, tables);
+		} else {
+			parseStream(file, tables);
+		}
+		return new ConfigSnapshot(file.getPath(), lastModified, length, configDocument, tables.debug, tables.info,
+				tables.commands, tables.labels, tables.resolveMacros(file), tables.idempotent,
+				tables.responses);
+	}
+
+	/**
+	 * Reads the file into a DOM document and the tables from it
+	 */
+	private static Document parseDocument(File file, Tables tables) throws Exception {
+		DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+		// fully build the tree so several threads can read the shared document
+		try {
+			dbFactory.setFeature("http://apache.org/xml/features/dom/defer-node-expansion", false);
+		} catch (Exception e) {
+			// not a Xerces parser - its documents are not deferred
+		}
+		DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+		Document configDocument = dBuilder.parse(file);
+		configDocument.getDocumentElement().normalize();
+
+		tables.debug = getBooleanValue(configDocument, "debug");
+		tables.info = getBooleanValue(configDocument, "info");
+
+		AsyncLog.getDefault().log(LogLevel.of(tables.debug, tables.info), LogLevel.DEBUG, file.getPath(), 
+				() -> "Root element :" + configDocument.getDocumentElement().getNodeName());
+
+		// get the commands
+		try {
+			NodeList nodes = configDocument.getElementsByTagName("command");
+			for(int i = 0; i < nodes.getLength(); i++) {
+				Element element = (Element) nodes.item(i);
+				tables.addCommand(element.getAttribute("name"), element.getAttribute("value"), element.getAttribute("label"),
+						element.getAttribute("idempotent"), element.getAttribute("response"));
+			}
+		} catch (Exception e) {
+			AsyncLog.getDefault().log(LogLevel.ERROR, file.getPath(), "Could not read commands", e);
+		}
+
+		// get the macros - <macro name="..."><step command="commandName"/>...</macro>
+		try {
+			NodeList nodes = configDocument.getElementsByTagName("macro");
+			for(int i = 0; i < nodes.getLength(); i++) {
+				Element element = (Element) nodes.item(i);
+				List<String> steps = tables.addMacro(element.getAttribute("name"));
+				NodeList stepNodes = element.getElementsByTagName("step");
+				for(int j = 0; j < stepNodes.getLength(); j++) {
+					steps.add(((Element) stepNodes.item(j)).getAttribute("command"));
+				}
+			}
+		} catch (Exception e) {
+			AsyncLog.getDefault().log(LogLevel.ERROR, file.getPath(), "Could not read macros", e);
+		}
+
+		return configDocument;
+	}
+
+	/**
+	 * Streams the file into the tables one element at a time, so no more than
+	 * the current element is held besides the tables themselves
+	 */
+	private static void parseStream(File file, Tables tables) throws Exception {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		XMLStreamReader reader = null;
+		try {
+			reader = factory.createXMLStreamReader(in);
+			boolean debugFound = false;
+			boolean infoFound = false;
+			List<String> steps = null;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.END_ELEMENT) {
+					if (reader.getLocalName().equals("macro")) {
+						steps = null;
+					}
+					continue;
+				}
+				if (event != XMLStreamConstants.START_ELEMENT) {
+					continue;
+				}
+				String element = reader.getLocalName();
+				if (element.equals("command")) {
+					tables.addCommand(getAttribute(reader, "name"), getAttribute(reader, "value"), getAttribute(reader, "label"),
+							getAttribute(reader, "idempotent"), getAttribute(reader, "response"));
+				} else if (element.equals("macro")) {
+					steps = tables.addMacro(getAttribute(reader, "name"));
+				} else if (element.equals("step") && steps != null) {
+					steps.add(getAttribute(reader, "command"));
+				} else if (element.equals("debug") && !debugFound) {
+					debugFound = true;
+					tables.debug = getAttribute(reader, "value").toLowerCase().equals("true");
+				} else if (element.equals("info") && !infoFound) {
+					infoFound = true;
+					tables.info = getAttribute(reader, "value").toLowerCase().equals("true");
+				}
+			}
+		} finally {
+			if (reader != null) {
+				reader.close();
+			}
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the attribute's value, or an empty string if it is missing, as
+	 *         the DOM returns
+	 */
+	private static String getAttribute(XMLStreamReader reader, String name) {
+		String value = reader.getAttributeValue(null, name);
+		return value == null ? "" : value;
+	}
+
+	/**
+	 * @param configDocument document to search
+	 * @param tagName element holding a value attribute
+	 * @return true if the first such element's value is "true"
+	 */
+	private static boolean getBooleanValue(Document configDocument, String tagName) {
+		// assume false until we can prove otherwise
+		try {
+			Element element = (Element) configDocument.getElementsByTagName(tagName).item(0);
+			return element.getAttribute("value").toLowerCase().equals("true");
+		} catch (Exception e) {
+			// no action needed - just avoiding a crash if the element wasn't found
+			return false;
+		}
+	}
+
+	/**
+	 * Tables filled in while reading the file
+	 */
+	private static class Tables {
+
+		private boolean debug;
+		private boolean info;
+		private final Map<String, String> commands = new HashMap<String, String>();
+		private final Map<String, String> labels = new HashMap<String, String>();
+		private final Set<String> idempotent = new HashSet<String>();
+		private final Map<String, String> responses = new HashMap<String, String>();
+		private final Map<String, List<String>> macroSteps = new LinkedHashMap<String, List<String>>();
+
+		void addCommand(String name, String value, String label, String idempotentValue, String response) {
+			// add the commands to the command map
+			commands.put(name, value);
+
+			// if there is a label, add it to label map
+			if (label != null && label.length() > 0) {
+				labels.put(value, label);
+			}
+
+			// queries that do not change the device can be answered from a cache
+			if (idempotentValue.toLowerCase().equals("true")) {
+				idempotent.add(name);
+			}
+
+			// what a simulated device answers
+			if (response != null && response.length() > 0) {
+				responses.put(value, response);
+			}
+		}
+
+		/**
+		 * @param name macro name
+		 * @return list the macro's step command names are added to
+		 */
+		List<String> addMacro(String name) {
+			List<String> steps = new ArrayList<String>();
+			macroSteps.put(name, steps);
+			return steps;
+		}
+
+		/**
+		 * Looks up each macro step once every command has been read
+		 * @param file config file, named in warnings
+		 * @return command values of each macro by macro name
+		 */
+		Map<String, List<String>> resolveMacros(File file) {
+			Map<String, List<String>> macros = new HashMap<String, List<String>>();
+			for (Map.Entry<String, List<String>> macro : macroSteps.entrySet()) {
+				List<String> steps = new ArrayList<String>();
+				for (String commandName : macro.getValue()) {
+					String value = commands.get(commandName);
+					if (value == null) {
+						AsyncLog.getDefault().log(LogLevel.WARN, file.getPath(), 
+								"Macro " + macro.getKey() + " refers to unknown command " + commandName, null);
+						continue;
+					}
+					steps.add(value);
+				}
+				macros.put(macro.getKey(), Collections.unmodifiableList(steps));
+			}
+			return macros;
+		}
+	}
+}
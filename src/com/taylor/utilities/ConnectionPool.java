@@ -0,0 +1,360 @@
+package com.taylor.utilities;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps device connections open between uses, keyed by ip:port. Idle
+ * connections are probed and closed when the peer has gone away, and failed
+ * connection attempts back off exponentially so an offline device is not
+ * hammered with reconnects.
+ */
+public class ConnectionPool {
+
+	private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+	private static final int DEFAULT_IDLE_TIMEOUT = 300000;
+	private static final int DEFAULT_KEEP_ALIVE_INTERVAL = 30000;
+	private static final int DEFAULT_INITIAL_BACKOFF = 500;
+	private static final int DEFAULT_MAX_BACKOFF = 30000;
+	private static final int DEFAULT_MAX_IDLE_PER_ENDPOINT = 4;
+
+	private final NioEngine engine;
+	private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+	private final AtomicBoolean keepAliveScheduled = new AtomicBoolean();
+
+	private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private volatile int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	private volatile int keepAliveInterval = DEFAULT_KEEP_ALIVE_INTERVAL;
+	private volatile byte[] keepAliveProbe;
+	private volatile int initialBackoff = DEFAULT_INITIAL_BACKOFF;
+	private volatile int maxBackoff = DEFAULT_MAX_BACKOFF;
+	private volatile int maxIdlePerEndpoint = DEFAULT_MAX_IDLE_PER_ENDPOINT;
+
+	private static class DefaultHolder {
+		private static final ConnectionPool instance = new ConnectionPool(NioEngine.getDefault());
+	}
+
+	/** @return the process wide pool used when a device does not supply its own **/
+	public static ConnectionPool getDefault() {
+		return DefaultHolder.instance;
+	}
+
+	/**
+	 * Constructor
+	 * @param engine engine that opens and drives the pooled connections
+	 */
+	public ConnectionPool(NioEngine engine) {
+		this.engine = engine;
+	}
+
+	public NioEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * @param connectTimeout miliseconds to wait for a new connection, zero waits
+	 *            until the operating system gives up
+	 */
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * @param idleTimeout miliseconds an unused connection is kept open
+	 */
+	public void setIdleTimeout(int idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * @param keepAliveInterval miliseconds between checks of idle connections
+	 */
+	public void setKeepAliveInterval(int keepAliveInterval) {
+		this.keepAliveInterval = keepAliveInterval;
+	}
+
+	/**
+	 * @param keepAliveProbe bytes written to idle connections at each check so
+	 *            a silently dropped peer is noticed, or null to only watch for
+	 *            the peer closing. Only use a probe the device ignores.
+	 */
+	public void setKeepAliveProbe(byte[] keepAliveProbe) {
+		this.keepAliveProbe = keepAliveProbe == null ? null : keepAliveProbe.clone();
+	}
+
+	/**
+	 * @param initialBackoff miliseconds to wait after the first failed connect
+	 * @param maxBackoff most miliseconds to wait after repeated failures
+	 */
+	public void setBackoff(int initialBackoff, int maxBackoff) {
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+	}
+
+	/**
+	 * @param maxIdlePerEndpoint most unused connections kept for one ip:port,
+	 *            zero turns pooling off
+	 */
+	public void setMaxIdlePerEndpoint(int maxIdlePerEndpoint) {
+		this.maxIdlePerEndpoint = maxIdlePerEndpoint;
+	}
+
+	/**
+	 * Borrows an open connection, blocking while a new one is made if no idle
+	 * connection is available
+	 * @param ipAddress ip address to connect to
+	 * @param port network port to connect to
+	 * @return an open connection, to be handed back with {@link #release(DeviceConnection)}
+	 * @throws IOException if the connection could not be made or the endpoint
+	 *             is backing off after failures
+	 */
+	public DeviceConnection borrow(String ipAddress, int port) throws IOException {
+		try {
+			return borrowAsync(ipAddress, port).get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted connecting to " + ipAddress + ":" + port);
+		}
+	}
+
+	/**
+	 * Borrows an open connection without blocking the calling thread
+	 * @param ipAddress ip address to connect to
+	 * @param port network port to connect to
+	 * @return future completed with an open connection
+	 */
+	public CompletableFuture<DeviceConnection> borrowAsync(String ipAddress, int port) {
+		Endpoint endpoint = getEndpoint(ipAddress, port);
+
+		DeviceConnection idle = endpoint.takeIdle();
+		if (idle != null) {
+			return CompletableFuture.completedFuture(idle);
+		}
+
+		long wait = endpoint.backoffRemaining();
+		if (wait > 0) {
+			CompletableFuture<DeviceConnection> failed = new CompletableFuture<DeviceConnection>();
+			failed.completeExceptionally(new ConnectException("Connect to " + endpoint.key
+					+ " failed " + endpoint.failures + " time(s), retry in " + wait + "ms"));
+			return failed;
+		}
+
+		return engine.connectAsync(ipAddress, port, connectTimeout).whenComplete((opened, e) -> {
+			if (e != null) {
+				endpoint.connectFailed();
+			} else {
+				endpoint.connectSucceeded();
+			}
+		});
+	}
+
+	/**
+	 * Hands a borrowed connection back. Open connections are kept for the next
+	 * borrower, closed ones are dropped.
+	 * @param connection connection to return
+	 */
+	public void release(DeviceConnection connection) {
+		if (connection == null) {
+			return;
+		}
+		if (!connection.isOpen()) {
+			connection.close();
+			return;
+		}
+		if (!getEndpoint(connection.getIpAddress(), connection.getPort()).addIdle(connection)) {
+			connection.close();
+			return;
+		}
+		scheduleKeepAlive();
+	}
+
+	/**
+	 * Closes a borrowed connection that should not be reused
+	 * @param connection connection to close
+	 */
+	public void invalidate(DeviceConnection connection) {
+		if (connection != null) {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Closes every idle connection
+	 */
+	public void clear() {
+		for (Endpoint endpoint : endpoints.values()) {
+			endpoint.closeIdle(0);
+		}
+	}
+
+	private Endpoint getEndpoint(String ipAddress, int port) {
+		String key = ipAddress + ":" + port;
+		Endpoint endpoint = endpoints.get(key);
+		if (endpoint == null) {
+			endpoint = new Endpoint(key);
+			Endpoint existing = endpoints.putIfAbsent(key, endpoint);
+			if (existing != null) {
+				endpoint = existing;
+			}
+		}
+		return endpoint;
+	}
+
+	private void scheduleKeepAlive() {
+		if (keepAliveScheduled.compareAndSet(false, true)) {
+			engine.schedule(this::keepAlive, keepAliveInterval);
+		}
+	}
+
+	/**
+	 * Drops idle connections the peer has closed or that have been idle too
+	 * long, and probes the rest
+	 */
+	private void keepAlive() {
+		boolean anyIdle = false;
+		try {
+			for (Endpoint endpoint : endpoints.values()) {
+				anyIdle |= endpoint.closeIdle(idleTimeout);
+			}
+		} catch (Exception e) {
+			AsyncLog.getDefault().log(LogLevel.ERROR, "connection-pool", "Keep alive check failed", e);
+		} finally {
+			keepAliveScheduled.set(false);
+			if (anyIdle) {
+				scheduleKeepAlive();
+			}
+		}
+	}
+
+	/**
+	 * Idle connections and reconnect state for one ip:port
+	 */
+	private class Endpoint {
+
+		private final String key;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final ArrayDeque<IdleConnection> idle = new ArrayDeque<IdleConnection>();
+		private int failures;
+		private long retryAt;
+
+		Endpoint(String key) {
+			this.key = key;
+		}
+
+		DeviceConnection takeIdle() {
+			lock.lock();
+			try {
+				IdleConnection entry;
+				while ((entry = idle.pollLast()) != null) {
+					if (entry.connection.isOpen()) {
+						// anything received while idle belongs to no request
+						entry.connection.drain();
+						return entry.connection;
+					}
+					entry.connection.close();
+				}
+				return null;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		boolean addIdle(DeviceConnection connection) {
+			lock.lock();
+			try {
+				if (idle.size() >= maxIdlePerEndpoint) {
+					return false;
+				}
+				idle.addLast(new IdleConnection(connection, System.currentTimeMillis()));
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * @param maxIdle miliseconds a connection may stay idle
+		 * @return true if idle connections remain
+		 */
+		boolean closeIdle(long maxIdle) {
+			byte[] probe = keepAliveProbe;
+			long now = System.currentTimeMillis();
+			lock.lock();
+			try {
+				Iterator<IdleConnection> entries = idle.iterator();
+				while (entries.hasNext()) {
+					IdleConnection entry = entries.next();
+					if (!entry.connection.isOpen() || now - entry.since >= maxIdle) {
+						entries.remove();
+						entry.connection.close();
+					} else if (probe != null) {
+						try {
+							entry.connection.write(probe);
+						} catch (IOException e) {
+							// half-open connection - the write found the peer gone
+							entries.remove();
+							entry.connection.close();
+						}
+					}
+				}
+				return !idle.isEmpty();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		long backoffRemaining() {
+			lock.lock();
+			try {
+				return Math.max(0, retryAt - System.currentTimeMillis());
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void connectFailed() {
+			lock.lock();
+			try {
+				failures++;
+				long backoff = (long) initialBackoff << Math.min(failures - 1, 20);
+				retryAt = System.currentTimeMillis() + Math.min(backoff, maxBackoff);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void connectSucceeded() {
+			lock.lock();
+			try {
+				failures = 0;
+				retryAt = 0;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private static class IdleConnection {
+
+		private final DeviceConnection connection;
+		private final long since;
+
+		IdleConnection(DeviceConnection connection, long since) {
+			this.connection = connection;
+			this.since = since;
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package com.taylor.utilities;
+
+/**
+ * Prints messages to standard out as they always have been, with the stack
+ * trace of any exception to standard error
+ */
+public class ConsoleLogSink implements LogSink {
+
+	@Override
+	public void write(LogLevel level, long time, String source, String message, Throwable error) {
+		if (message != null) {
+			System.out.println(message);
+		}
+		if (error != null) {
+			error.printStackTrace();
+		}
+	}
+}
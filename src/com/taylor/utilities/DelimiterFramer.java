@@ -0,0 +1,49 @@
+package com.taylor.utilities;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames responses that end with one or more terminator bytes, such as CR/LF
+ * or ETX. The terminator is included in the frame.
+ */
+public class DelimiterFramer implements ResponseFramer {
+
+	public static final DelimiterFramer CR = new DelimiterFramer((byte) 13);
+	public static final DelimiterFramer LF = new DelimiterFramer((byte) 10);
+	public static final DelimiterFramer CRLF = new DelimiterFramer((byte) 13, (byte) 10);
+	public static final DelimiterFramer ETX = new DelimiterFramer((byte) 3);
+
+	private final byte[] terminator;
+
+	/**
+	 * Constructor
+	 * @param terminator byte(s) that end every response
+	 */
+	public DelimiterFramer(byte... terminator) {
+		if (terminator == null || terminator.length == 0) {
+			throw new IllegalArgumentException("terminator must contain at least one byte");
+		}
+		this.terminator = terminator.clone();
+	}
+
+	@Override
+	public int frameLength(ByteBuffer received) {
+		int start = received.position();
+		int last = received.limit() - terminator.length;
+		for (int i = start; i <= last; i++) {
+			if (received.get(i) == terminator[0] && matches(received, i)) {
+				return i - start + terminator.length;
+			}
+		}
+		return -1;
+	}
+
+	private boolean matches(ByteBuffer received, int offset) {
+		for (int j = 1; j < terminator.length; j++) {
+			if (received.get(offset + j) != terminator[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,745 @@
+package com.taylor.utilities;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A non-blocking socket connection to a single device. The channel is driven
+ * by an {@link NioEngine} selector thread which buffers incoming bytes until a
+ * caller reads them.
+ */
+public class DeviceConnection {
+
+	private static final int INITIAL_INBOUND_SIZE = 1024;
+	private static final int DEFAULT_MAX_INBOUND_SIZE = 1024 * 1024;
+
+	private final String ipAddress;
+	private final int port;
+	private final NioEngine.IoLoop loop;
+	private final NioEngine engine;
+	private final CompletableFuture<DeviceConnection> connectFuture = new CompletableFuture<DeviceConnection>();
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition dataAvailable = lock.newCondition();
+	private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<ByteBuffer>();
+	private ByteBuffer inbound = ByteBuffer.allocate(INITIAL_INBOUND_SIZE);
+	private ResponseFramer pendingFramer;
+	private ByteBuffer pendingTarget;
+	private ReceiveBufferPool pendingPool;
+	private CompletableFuture<ByteBuffer> pendingRead;
+	private ScheduledFuture<?> pendingReadTimeout;
+	private int expectedResponses;
+	private volatile Consumer<DeviceConnection> unsolicitedHandler;
+	private int maxInbound = DEFAULT_MAX_INBOUND_SIZE;
+	private boolean readPaused;
+
+	private SocketChannel channel;
+	private SelectionKey key;
+	private volatile boolean open;
+	private volatile boolean closed;
+
+	DeviceConnection(String ipAddress, int port, NioEngine.IoLoop loop, NioEngine engine) {
+		this.ipAddress = ipAddress;
+		this.port = port;
+		this.loop = loop;
+		this.engine = engine;
+	}
+
+	public String getIpAddress() {
+		return ipAddress;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return true if the channel is connected and the peer has not closed it
+	 */
+	public boolean isOpen() {
+		return open && !closed;
+	}
+
+	/**
+	 * @return number of received bytes waiting to be read
+	 */
+	public int available() {
+		lock.lock();
+		try {
+			return inbound.position();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Sets how much received data may wait to be read. Once that much is
+	 * buffered the connection stops reading from the socket, leaving the
+	 * device to wait on TCP flow control, until some of it has been read.
+	 * @param maxBuffered most bytes to buffer, 1MB unless set
+	 */
+	public void setMaxBuffered(int maxBuffered) {
+		if (maxBuffered < 1) {
+			throw new IllegalArgumentException("maxBuffered must be at least 1");
+		}
+		lock.lock();
+		try {
+			this.maxInbound = maxBuffered;
+			resumeIfDrained();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Sets the handler told about data that arrives while no response is
+	 * expected and no read is waiting. The handler runs on the selector
+	 * thread and should take the data with {@link #pollFrame(ResponseFramer)}
+	 * or {@link #drain()} without blocking.
+	 * @param handler handler for unsolicited data, or null for none
+	 */
+	public void setUnsolicitedHandler(Consumer<DeviceConnection> handler) {
+		this.unsolicitedHandler = handler;
+	}
+
+	/**
+	 * Marks that a command has been sent and its response is on the way, so
+	 * data arriving before the response is read is not treated as unsolicited
+	 */
+	public void beginResponse() {
+		lock.lock();
+		try {
+			expectedResponses++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Marks that an expected response has been read. Anything still buffered
+	 * once no responses are expected goes to the unsolicited handler.
+	 */
+	public void endResponse() {
+		boolean idle;
+		lock.lock();
+		try {
+			if (expectedResponses > 0) {
+				expectedResponses--;
+			}
+			idle = isIdle();
+		} finally {
+			lock.unlock();
+		}
+		if (idle) {
+			notifyUnsolicited();
+		}
+	}
+
+	CompletableFuture<DeviceConnection> getConnectFuture() {
+		return connectFuture;
+	}
+
+	/**
+	 * Writes the data to the device. Whatever the socket will not take right
+	 * away is queued and flushed by the selector thread.
+	 * @param data bytes to send
+	 * @throws IOException if the connection is closed or the write fails
+	 */
+	public void write(byte[] data) throws IOException {
+		write(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Writes the remaining bytes of the buffer to the device
+	 * @param data bytes to send
+	 * @throws IOException if the connection is closed or the write fails
+	 */
+	public void write(ByteBuffer data) throws IOException {
+		boolean queued = false;
+		lock.lock();
+		try {
+			if (!isOpen()) {
+				throw new ClosedChannelException();
+			}
+			if (outbound.isEmpty()) {
+				channel.write(data);
+			}
+			if (data.hasRemaining()) {
+				ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+				copy.put(data).flip();
+				outbound.add(copy);
+				queued = true;
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		} finally {
+			lock.unlock();
+		}
+
+		if (queued) {
+			loop.execute(() -> setInterest(SelectionKey.OP_WRITE, true));
+		}
+	}
+
+	/**
+	 * Reads whatever has been received, waiting up to timeout for data to
+	 * arrive if none is buffered.
+	 * @param buffer destination for the data
+	 * @param timeout miliseconds to wait for data, zero waits indefinitly
+	 * @return number of bytes read, or -1 if the connection closed
+	 * @throws SocketTimeoutException if no data arrived before the timeout
+	 */
+	public int read(byte[] buffer, int timeout) throws SocketTimeoutException {
+		lock.lock();
+		try {
+			long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+			while (inbound.position() == 0) {
+				if (closed) {
+					return -1;
+				}
+				if (timeout <= 0) {
+					dataAvailable.awaitUninterruptibly();
+				} else {
+					if (remaining <= 0) {
+						throw new SocketTimeoutException("Read timed out");
+					}
+					remaining = dataAvailable.awaitNanos(remaining);
+				}
+			}
+
+			return drainTo(buffer);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SocketTimeoutException("Read interrupted");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reads whatever has been received without blocking the caller. The
+	 * future completes as soon as data is buffered. Only one asynchronous
+	 * read may be outstanding at a time.
+	 * @param buffer destination for the data
+	 * @param timeout miliseconds to wait for data, zero waits indefinitly
+	 * @return future completed with the number of bytes read, -1 if the
+	 *         connection closed, or a SocketTimeoutException
+	 */
+	public CompletableFuture<Integer> readAsync(byte[] buffer, int timeout) {
+		return readAsync(ByteBuffer.wrap(buffer), timeout);
+	}
+
+	/**
+	 * Reads whatever has been received straight into the target without
+	 * blocking the caller. Only one asynchronous read may be outstanding at a
+	 * time.
+	 * @param target destination for the data, filled from its position up to
+	 *            its limit
+	 * @param timeout miliseconds to wait for data, zero waits indefinitly
+	 * @return future completed with the number of bytes read, -1 if the
+	 *         connection closed, or a SocketTimeoutException
+	 */
+	public CompletableFuture<Integer> readAsync(ByteBuffer target, int timeout) {
+		int start = target.position();
+		return readPending(new AvailableFramer(target.remaining()), target, null, timeout)
+				.thenApply(filled -> filled == null ? -1 : filled.position() - start);
+	}
+
+	/**
+	 * Reads one complete frame, waiting up to timeout for its last byte to
+	 * arrive. Bytes after the frame stay buffered for the next read.
+	 * @param framer decides where the frame ends
+	 * @param timeout miliseconds to wait for the frame, zero waits indefinitly
+	 * @return the frame, or null if the connection closed first
+	 * @throws SocketTimeoutException if the frame was not complete before the
+	 *         timeout
+	 * @throws ProtocolException if the framer could not make sense of the
+	 *         data, in which case the connection is closed
+	 */
+	public byte[] readFrame(ResponseFramer framer, int timeout) throws SocketTimeoutException, ProtocolException {
+		ProtocolException error;
+		lock.lock();
+		try {
+			long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+			ByteBuffer frame;
+			while ((frame = extractFrame(framer, null, null)) == null) {
+				if (closed) {
+					return null;
+				}
+				if (timeout <= 0) {
+					dataAvailable.awaitUninterruptibly();
+				} else {
+					if (remaining <= 0) {
+						throw new SocketTimeoutException("Read timed out");
+					}
+					remaining = dataAvailable.awaitNanos(remaining);
+				}
+			}
+			return frame.array();
+		} catch (ProtocolException e) {
+			error = e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SocketTimeoutException("Read interrupted");
+		} finally {
+			lock.unlock();
+		}
+		protocolError(error);
+		throw error;
+	}
+
+	/**
+	 * Reads one complete frame without blocking the caller. Only one
+	 * asynchronous read may be outstanding at a time.
+	 * @param framer decides where the frame ends
+	 * @param timeout miliseconds to wait for the frame, zero waits indefinitly
+	 * @return future completed with the frame, null if the connection closed,
+	 *         a SocketTimeoutException, or a ProtocolException if the framer
+	 *         could not make sense of the data
+	 */
+	public CompletableFuture<byte[]> readFrameAsync(ResponseFramer framer, int timeout) {
+		return readFrameAsync(framer, timeout, null).thenApply(frame -> frame == null ? null : frame.array());
+	}
+
+	/**
+	 * Reads one complete frame into a pooled buffer without blocking the
+	 * caller. Only one asynchronous read may be outstanding at a time.
+	 * @param framer decides where the frame ends
+	 * @param timeout miliseconds to wait for the frame, zero waits indefinitly
+	 * @param pool pool the frame's buffer is taken from, or null to allocate
+	 *            one exactly the frame's size
+	 * @return future completed with the frame from position to limit, null if
+	 *         the connection closed, a SocketTimeoutException, or a
+	 *         ProtocolException if the framer could not make sense of the data
+	 */
+	public CompletableFuture<ByteBuffer> readFrameAsync(ResponseFramer framer, int timeout, ReceiveBufferPool pool) {
+		return readPending(framer, null, pool, timeout);
+	}
+
+	private CompletableFuture<ByteBuffer> readPending(ResponseFramer framer, ByteBuffer target, ReceiveBufferPool pool, int timeout) {
+		CompletableFuture<ByteBuffer> future = new CompletableFuture<ByteBuffer>();
+		ProtocolException error = null;
+		lock.lock();
+		try {
+			ByteBuffer frame;
+			if (pendingRead != null) {
+				future.completeExceptionally(new IllegalStateException("Read already pending on " + this));
+			} else if ((frame = extractFrame(framer, target, pool)) != null) {
+				future.complete(frame);
+			} else if (closed) {
+				future.complete(null);
+			} else {
+				pendingRead = future;
+				pendingFramer = framer;
+				pendingTarget = target;
+				pendingPool = pool;
+				if (timeout > 0) {
+					pendingReadTimeout = engine.schedule(() -> timeoutPendingRead(future), timeout);
+				}
+			}
+		} catch (ProtocolException e) {
+			error = e;
+		} finally {
+			lock.unlock();
+		}
+		if (error != null) {
+			protocolError(error);
+			future.completeExceptionally(error);
+		}
+		return future;
+	}
+
+	/**
+	 * Takes one complete frame if it has already been received
+	 * @param framer decides where the frame ends
+	 * @return the frame, or null if no complete frame is buffered or the
+	 *         framer could not make sense of the data, in which case the
+	 *         connection is closed
+	 */
+	public byte[] pollFrame(ResponseFramer framer) {
+		ProtocolException error;
+		lock.lock();
+		try {
+			ByteBuffer frame = extractFrame(framer, null, null);
+			return frame == null ? null : frame.array();
+		} catch (ProtocolException e) {
+			error = e;
+		} finally {
+			lock.unlock();
+		}
+		protocolError(error);
+		return null;
+	}
+
+	/**
+	 * Removes and returns everything buffered, such as the start of a frame
+	 * that never completed
+	 * @return buffered bytes, possibly empty
+	 */
+	public byte[] drain() {
+		lock.lock();
+		try {
+			byte[] data = new byte[inbound.position()];
+			drainTo(data);
+			return data;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the channel. Any buffered data can still be read afterwards.
+	 */
+	public void close() {
+		CompletableFuture<ByteBuffer> read;
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			outbound.clear();
+			dataAvailable.signalAll();
+			read = takePendingRead();
+		} finally {
+			lock.unlock();
+		}
+		if (read != null) {
+			read.complete(null);
+		}
+
+		loop.execute(() -> {
+			if (key != null) {
+				key.cancel();
+			}
+			try {
+				if (channel != null) {
+					channel.close();
+				}
+			} catch (IOException e) {
+				AsyncLog.getDefault().log(LogLevel.WARN, toString(), "Could not close connection", e);
+			}
+		});
+		connectFuture.completeExceptionally(new ClosedChannelException());
+	}
+
+	/**
+	 * Opens the channel and registers it with the selector. Runs on the
+	 * selector thread.
+	 */
+	void start(Selector selector, InetSocketAddress address) {
+		try {
+			if (address.isUnresolved()) {
+				throw new IOException("Unknown host " + ipAddress);
+			}
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			channel.socket().setKeepAlive(true);
+			if (channel.connect(address)) {
+				key = channel.register(selector, SelectionKey.OP_READ, this);
+				connected();
+			} else {
+				key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+			}
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	void connectTimedOut() {
+		if (connectFuture.completeExceptionally(new SocketTimeoutException("Connect to " + this + " timed out"))) {
+			close();
+		}
+	}
+
+	void onConnectable() {
+		try {
+			if (channel.finishConnect()) {
+				key.interestOps(SelectionKey.OP_READ);
+				connected();
+			}
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	void onReadable(ByteBuffer readBuffer) {
+		try {
+			int count;
+			boolean reading = true;
+			do {
+				readBuffer.clear();
+				count = channel.read(readBuffer);
+				if (count > 0) {
+					readBuffer.flip();
+					reading = received(readBuffer);
+				}
+			} while (reading && count == readBuffer.capacity());
+
+			if (count < 0) {
+				// the peer closed its side of the connection
+				close();
+			}
+		} catch (IOException e) {
+			close();
+		}
+	}
+
+	void onWritable() {
+		lock.lock();
+		try {
+			while (!outbound.isEmpty()) {
+				ByteBuffer next = outbound.peek();
+				channel.write(next);
+				if (next.hasRemaining()) {
+					return;
+				}
+				outbound.poll();
+			}
+			setInterest(SelectionKey.OP_WRITE, false);
+		} catch (IOException e) {
+			close();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Buffers received data and hands it to a waiting read. Runs on the
+	 * selector thread.
+	 * @return false if the buffer is full and reading has been paused
+	 */
+	private boolean received(ByteBuffer data) {
+		CompletableFuture<ByteBuffer> read = null;
+		ByteBuffer frame = null;
+		boolean idle;
+		boolean pause = false;
+		int buffered;
+		ProtocolException error = null;
+		lock.lock();
+		try {
+			if (inbound.remaining() < data.remaining()) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(inbound.capacity() * 2, inbound.position() + data.remaining()));
+				inbound.flip();
+				larger.put(inbound);
+				inbound = larger;
+			}
+			inbound.put(data);
+			dataAvailable.signalAll();
+			try {
+				if (pendingRead != null && (frame = extractFrame(pendingFramer, pendingTarget, pendingPool)) != null) {
+					read = takePendingRead();
+				}
+			} catch (ProtocolException e) {
+				error = e;
+				read = takePendingRead();
+			}
+			idle = isIdle();
+			buffered = inbound.position();
+			if (!readPaused && buffered >= maxInbound) {
+				readPaused = pause = true;
+				setInterest(SelectionKey.OP_READ, false);
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (error != null) {
+			protocolError(error);
+			read.completeExceptionally(error);
+			return false;
+		}
+		if (pause) {
+			AsyncLog.getDefault().log(LogLevel.WARN, toString(),
+					"Paused reading with " + buffered + " bytes received but not read", null);
+		}
+		if (read != null) {
+			read.complete(frame);
+		} else if (idle) {
+			notifyUnsolicited();
+		}
+		return !pause;
+	}
+
+	/**
+	 * @return true if buffered data belongs to no command. Caller holds the lock.
+	 */
+	private boolean isIdle() {
+		return expectedResponses == 0 && pendingRead == null && inbound.position() > 0;
+	}
+
+	private void notifyUnsolicited() {
+		Consumer<DeviceConnection> handler = unsolicitedHandler;
+		if (handler != null) {
+			try {
+				handler.accept(this);
+			} catch (Exception e) {
+				AsyncLog.getDefault().log(LogLevel.ERROR, toString(), "Unsolicited data handler failed", e);
+			}
+		}
+	}
+
+	/**
+	 * Removes the first complete frame from the buffer. Caller holds the lock.
+	 * @param framer decides where the frame ends
+	 * @param target buffer to put the frame in, or null for a new buffer
+	 * @param pool pool to take the new buffer from, or null to allocate it
+	 * @return the target, or the new buffer flipped ready to read, or null if
+	 *         the frame is not complete yet
+	 * @throws ProtocolException if the framer threw or gave an empty frame,
+	 *         which would otherwise repeat on every read
+	 */
+	private ByteBuffer extractFrame(ResponseFramer framer, ByteBuffer target, ReceiveBufferPool pool) throws ProtocolException {
+		ByteBuffer received = (ByteBuffer) inbound.duplicate().flip();
+		int length;
+		try {
+			length = framer.frameLength(received);
+		} catch (RuntimeException e) {
+			ProtocolException error = new ProtocolException("Could not frame data from " + this + ": " + e.getMessage());
+			error.initCause(e);
+			throw error;
+		}
+		if (length == 0) {
+			throw new ProtocolException("Framer gave an empty frame for data from " + this);
+		}
+		if (length < 0 || length > received.remaining()) {
+			return null;
+		}
+		ByteBuffer frame = target;
+		if (frame == null) {
+			frame = pool == null ? ByteBuffer.allocate(length) : pool.acquire(length);
+		}
+		inbound.flip();
+		int limit = inbound.limit();
+		inbound.limit(length);
+		frame.put(inbound);
+		inbound.limit(limit);
+		inbound.compact();
+		resumeIfDrained();
+		if (target == null) {
+			frame.flip();
+		}
+		return frame;
+	}
+
+	/**
+	 * Moves buffered bytes into the caller's buffer. Caller holds the lock.
+	 */
+	private int drainTo(byte[] buffer) {
+		inbound.flip();
+		int length = Math.min(buffer.length, inbound.remaining());
+		inbound.get(buffer, 0, length);
+		inbound.compact();
+		resumeIfDrained();
+		return length;
+	}
+
+	/**
+	 * Starts reading from the socket again once enough buffered data has
+	 * been read. Caller holds the lock.
+	 */
+	private void resumeIfDrained() {
+		if (readPaused && inbound.position() < maxInbound) {
+			readPaused = false;
+			loop.execute(() -> setInterest(SelectionKey.OP_READ, true));
+		}
+	}
+
+	/**
+	 * Detaches the outstanding asynchronous read so it can be completed once
+	 * the lock is released. Caller holds the lock.
+	 */
+	private CompletableFuture<ByteBuffer> takePendingRead() {
+		CompletableFuture<ByteBuffer> future = pendingRead;
+		pendingRead = null;
+		pendingFramer = null;
+		pendingTarget = null;
+		pendingPool = null;
+		if (pendingReadTimeout != null) {
+			pendingReadTimeout.cancel(false);
+			pendingReadTimeout = null;
+		}
+		return future;
+	}
+
+	private void timeoutPendingRead(CompletableFuture<ByteBuffer> future) {
+		lock.lock();
+		try {
+			if (pendingRead != future) {
+				return;
+			}
+			pendingRead = null;
+			pendingFramer = null;
+			pendingTarget = null;
+			pendingPool = null;
+			pendingReadTimeout = null;
+		} finally {
+			lock.unlock();
+		}
+		future.completeExceptionally(new SocketTimeoutException("Read timed out"));
+	}
+
+	private void connected() {
+		open = true;
+		connectFuture.complete(this);
+	}
+
+	/**
+	 * Logs data that could not be framed and closes the connection, since the
+	 * bytes that upset the framer would still be at the front of the buffer
+	 * on the next read. Caller must not hold the lock.
+	 */
+	private void protocolError(ProtocolException e) {
+		AsyncLog.getDefault().log(LogLevel.ERROR, toString(), "Closing connection on data that could not be framed", e);
+		close();
+	}
+
+	private void fail(IOException e) {
+		connectFuture.completeExceptionally(e);
+		close();
+	}
+
+	private void setInterest(int op, boolean enabled) {
+		if (key != null && key.isValid()) {
+			int ops = key.interestOps();
+			key.interestOps(enabled ? ops | op : ops & ~op);
+		}
+	}
+
+	/**
+	 * Treats whatever has been received, up to a maximum, as a frame
+	 */
+	private static class AvailableFramer implements ResponseFramer {
+
+		private final int maximum;
+
+		AvailableFramer(int maximum) {
+			this.maximum = maximum;
+		}
+
+		@Override
+		public int frameLength(ByteBuffer received) {
+			return received.hasRemaining() ? Math.min(maximum, received.remaining()) : -1;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return ipAddress + ":" + port;
+	}
+}
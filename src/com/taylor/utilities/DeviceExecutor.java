@@ -0,0 +1,117 @@
+package com.taylor.utilities;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Runs device interactions written in the blocking style (connect, sendCommand,
+ * readResponse) for a whole fleet of devices. On a Java runtime with virtual
+ * threads every task gets its own virtual thread, so thousands of devices can
+ * wait on responses at once. The device I/O path only waits on locks and
+ * futures, never inside a synchronized block, so those threads do not pin
+ * their carriers. On older runtimes a fixed pool of platform threads is used.
+ */
+public class DeviceExecutor {
+
+	private static final int FALLBACK_THREADS = Math.max(16, Runtime.getRuntime().availableProcessors() * 8);
+
+	private final ExecutorService executor;
+	private final boolean virtual;
+
+	private static class DefaultHolder {
+		private static final DeviceExecutor instance = new DeviceExecutor();
+	}
+
+	/** @return the process wide device executor **/
+	public static DeviceExecutor getDefault() {
+		return DefaultHolder.instance;
+	}
+
+	/**
+	 * Constructor - uses virtual threads when the runtime supports them
+	 */
+	public DeviceExecutor() {
+		ExecutorService virtualExecutor = newVirtualThreadExecutor();
+		if (virtualExecutor != null) {
+			this.executor = virtualExecutor;
+			this.virtual = true;
+		} else {
+			AtomicInteger count = new AtomicInteger();
+			this.executor = Executors.newFixedThreadPool(FALLBACK_THREADS, runnable -> {
+				Thread thread = new Thread(runnable, "device-executor-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.virtual = false;
+		}
+	}
+
+	/**
+	 * Constructor
+	 * @param executor executor to run device tasks on
+	 */
+	public DeviceExecutor(ExecutorService executor) {
+		this.executor = executor;
+		this.virtual = false;
+	}
+
+	/**
+	 * @return true if each task runs on its own virtual thread
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * Runs the task against the device
+	 * @param device device to interact with
+	 * @param task blocking interaction, such as device -> device.sendCommand("PWRQSTN")
+	 * @return future completed with the task's result
+	 */
+	public <D extends CommunicationDevice, T> CompletableFuture<T> submit(D device, Function<? super D, ? extends T> task) {
+		return CompletableFuture.supplyAsync(() -> task.apply(device), executor);
+	}
+
+	/**
+	 * Runs the task against every device at once
+	 * @param devices devices to interact with
+	 * @param task blocking interaction to run on each device
+	 * @return futures for each device's result, in the same order as the devices
+	 */
+	public <D extends CommunicationDevice, T> List<CompletableFuture<T>> submitAll(Collection<? extends D> devices,
+			Function<? super D, ? extends T> task) {
+		List<CompletableFuture<T>> results = new ArrayList<CompletableFuture<T>>(devices.size());
+		for (D device : devices) {
+			results.add(submit(device, task));
+		}
+		return results;
+	}
+
+	/**
+	 * Stops accepting tasks; running tasks are allowed to finish
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Looks up Executors.newVirtualThreadPerTaskExecutor() so the project can
+	 * still be compiled for Java 8
+	 * @return a virtual thread per task executor, or null if not supported
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package com.taylor.utilities;
+
+/**
+ * Receives messages a device pushes on its own, such as a volume knob being
+ * turned or the input being changed, rather than in answer to a command.
+ */
+public interface DeviceListener {
+
+	/**
+	 * @param device device the message came from
+	 * @param message unsolicited message, one frame if the device has a
+	 *            response framer, otherwise whatever arrived together
+	 */
+	void unsolicitedMessage(CommunicationDevice device, String message);
+
+}
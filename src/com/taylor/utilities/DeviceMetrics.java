@@ -0,0 +1,351 @@
+package com.taylor.utilities;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Where the time goes for one device (ip:port), shared by every
+ * CommunicationDevice talking to it. Each phase of a command has its own
+ * {@link Histogram} in nanoseconds:
+ * <ul>
+ * <li>connect - opening a connection, when one was not already open</li>
+ * <li>send - from handing the command to the pacer until the last repeat is
+ * written, including the send wait</li>
+ * <li>first packet - from starting to read until the first bytes arrive</li>
+ * <li>tail - from the last bytes arriving until the response is complete,
+ * which for devices without a framer is the receive wait or timeout</li>
+ * <li>response - from starting to read until the response is complete</li>
+ * <li>command - from the send until the response is returned</li>
+ * </ul>
+ * A {@link ResponseTimeEstimator} kept alongside tracks the device's typical
+ * response time for devices that adapt their waits to it.
+ * <p>
+ * The metrics are registered as an MBean named
+ * com.taylor.utilities:type=DeviceMetrics,name="ip:port" so they can be
+ * watched with jconsole or any JMX client while the wait settings are tuned.
+ * They stay registered until every device using them has disconnected.
+ */
+public class DeviceMetrics implements DeviceMetricsMBean {
+
+	private static final String DOMAIN = "com.taylor.utilities";
+	private static final ConcurrentHashMap<String, DeviceMetrics> devices = new ConcurrentHashMap<String, DeviceMetrics>();
+
+	private final String device;
+	// devices holding these metrics from forDevice, only changed inside devices.compute
+	private int users;
+	private final Histogram connectLatency = new Histogram();
+	private final Histogram sendLatency = new Histogram();
+	private final Histogram firstPacketLatency = new Histogram();
+	private final Histogram tailLatency = new Histogram();
+	private final Histogram responseLatency = new Histogram();
+	private final Histogram commandLatency = new Histogram();
+	private final Histogram responseBytes = new Histogram();
+	private final Histogram responsePackets = new Histogram();
+	private final LongAdder commands = new LongAdder();
+	private final LongAdder connects = new LongAdder();
+	private final LongAdder reconnects = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder bytesSent = new LongAdder();
+	private final LongAdder bytesReceived = new LongAdder();
+	private final ResponseTimeEstimator responseTime = new ResponseTimeEstimator();
+
+	/**
+	 * @param ipAddress ip address of the device
+	 * @param port port of the device
+	 * @return the device's metrics, created and registered with JMX the first
+	 *         time they are asked for. Hand them back with {@link #release()}
+	 *         once done so they are unregistered when nothing uses them.
+	 */
+	public static DeviceMetrics forDevice(String ipAddress, int port) {
+		return devices.compute(ipAddress + ":" + port, (device, existing) -> {
+			DeviceMetrics metrics = existing;
+			if (metrics == null) {
+				metrics = new DeviceMetrics(device);
+				metrics.register();
+			}
+			metrics.users++;
+			return metrics;
+		});
+	}
+
+	/**
+	 * Constructor - not registered with JMX, for devices keeping metrics of
+	 * their own
+	 * @param device name shown for the device, such as ip:port
+	 */
+	public DeviceMetrics(String device) {
+		this.device = device;
+	}
+
+	private void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = getObjectName();
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+			}
+		} catch (Exception e) {
+			AsyncLog.getDefault().log(LogLevel.WARN, device, "Could not register metrics with JMX (" + e + ")", null);
+		}
+	}
+
+	/**
+	 * Hands back metrics from {@link #forDevice(String, int)}. Once every
+	 * holder has released them they are unregistered from JMX and forgotten,
+	 * and the next forDevice starts afresh. Does nothing for metrics made
+	 * with the constructor.
+	 */
+	public void release() {
+		devices.computeIfPresent(device, (key, existing) -> {
+			if (existing != this || --users > 0) {
+				return existing;
+			}
+			unregister();
+			return null;
+		});
+	}
+
+	private ObjectName getObjectName() throws MalformedObjectNameException {
+		return new ObjectName(DOMAIN + ":type=DeviceMetrics,name=" + ObjectName.quote(device));
+	}
+
+	private void unregister() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = getObjectName();
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (Exception e) {
+			AsyncLog.getDefault().log(LogLevel.WARN, device, "Could not unregister metrics from JMX (" + e + ")", null);
+		}
+	}
+
+	// recording, called by CommunicationDevice as each phase ends
+
+	void connected(long nanos, boolean reconnect) {
+		connects.increment();
+		if (reconnect) {
+			reconnects.increment();
+		}
+		connectLatency.record(nanos);
+	}
+
+	void sent(long bytes, long nanos) {
+		bytesSent.add(bytes);
+		sendLatency.record(nanos);
+	}
+
+	/**
+	 * @param firstPacketNanos until the first bytes arrived, or -1 if unknown
+	 * @param tailNanos from the last bytes until complete, or -1 if unknown
+	 * @param totalNanos from starting to read until complete
+	 * @param bytes bytes in the response
+	 * @param packets reads the response took, or 0 if unknown
+	 * @param timedOut true if the response did not arrive in time
+	 */
+	void responded(long firstPacketNanos, long tailNanos, long totalNanos, int bytes, int packets, boolean timedOut) {
+		if (firstPacketNanos >= 0) {
+			firstPacketLatency.record(firstPacketNanos);
+		}
+		if (tailNanos >= 0) {
+			tailLatency.record(tailNanos);
+		}
+		if (packets > 0) {
+			responsePackets.record(packets);
+		}
+		if (timedOut) {
+			timeouts.increment();
+		}
+		responseLatency.record(totalNanos);
+		responseBytes.record(bytes);
+		bytesReceived.add(bytes);
+	}
+
+	void completed(long nanos) {
+		commands.increment();
+		commandLatency.record(nanos);
+	}
+
+	void failed() {
+		errors.increment();
+	}
+
+	/**
+	 * @return estimate of the device's response time, fed by every response
+	 *         that arrives in time
+	 */
+	public ResponseTimeEstimator getResponseTimeEstimator() {
+		return responseTime;
+	}
+
+	// histograms, in nanoseconds apart from bytes and packets
+
+	public Histogram getConnectLatency() {
+		return connectLatency;
+	}
+
+	public Histogram getSendLatency() {
+		return sendLatency;
+	}
+
+	public Histogram getFirstPacketLatency() {
+		return firstPacketLatency;
+	}
+
+	public Histogram getTailLatency() {
+		return tailLatency;
+	}
+
+	public Histogram getResponseLatency() {
+		return responseLatency;
+	}
+
+	public Histogram getCommandLatency() {
+		return commandLatency;
+	}
+
+	public Histogram getResponseBytes() {
+		return responseBytes;
+	}
+
+	public Histogram getResponsePackets() {
+		return responsePackets;
+	}
+
+	// MBean attributes
+
+	@Override
+	public String getDevice() {
+		return device;
+	}
+
+	@Override
+	public long getCommands() {
+		return commands.sum();
+	}
+
+	@Override
+	public long getConnects() {
+		return connects.sum();
+	}
+
+	@Override
+	public long getReconnects() {
+		return reconnects.sum();
+	}
+
+	@Override
+	public long getTimeouts() {
+		return timeouts.sum();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	@Override
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+
+	@Override
+	public long getBytesReceived() {
+		return bytesReceived.sum();
+	}
+
+	@Override
+	public double getCommandMillisMean() {
+		return commandLatency.getMean() / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@Override
+	public double getCommandMillis50th() {
+		return millis(commandLatency.getValueAtPercentile(50));
+	}
+
+	@Override
+	public double getCommandMillis99th() {
+		return millis(commandLatency.getValueAtPercentile(99));
+	}
+
+	@Override
+	public double getCommandMillisMax() {
+		return millis(commandLatency.getMax());
+	}
+
+	@Override
+	public double getConnectMillis99th() {
+		return millis(connectLatency.getValueAtPercentile(99));
+	}
+
+	@Override
+	public double getSendMillis99th() {
+		return millis(sendLatency.getValueAtPercentile(99));
+	}
+
+	@Override
+	public double getFirstPacketMillis99th() {
+		return millis(firstPacketLatency.getValueAtPercentile(99));
+	}
+
+	@Override
+	public double getResponseMillis99th() {
+		return millis(responseLatency.getValueAtPercentile(99));
+	}
+
+	@Override
+	public double getTailMillis99th() {
+		return millis(tailLatency.getValueAtPercentile(99));
+	}
+
+	@Override
+	public double getSmoothedResponseMillis() {
+		return millis(responseTime.getSmoothed());
+	}
+
+	@Override
+	public double getResponseVariationMillis() {
+		return millis(responseTime.getVariation());
+	}
+
+	@Override
+	public double getResponseBytesMean() {
+		return responseBytes.getMean();
+	}
+
+	@Override
+	public double getResponsePacketsMean() {
+		return responsePackets.getMean();
+	}
+
+	@Override
+	public void reset() {
+		for (Histogram histogram : new Histogram[] { connectLatency, sendLatency, firstPacketLatency, tailLatency,
+				responseLatency, commandLatency, responseBytes, responsePackets }) {
+			histogram.reset();
+		}
+		for (LongAdder counter : new LongAdder[] { commands, connects, reconnects, timeouts, errors, bytesSent, bytesReceived }) {
+			counter.reset();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return device + " commands=" + getCommands() + " timeouts=" + getTimeouts() + " reconnects=" + getReconnects()
+				+ " errors=" + getErrors() + "\n  command ns: " + commandLatency + "\n  response ns: " + responseLatency
+				+ "\n  first packet ns: " + firstPacketLatency + "\n  tail ns: " + tailLatency;
+	}
+
+	private static double millis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
@@ -0,0 +1,54 @@
+package com.taylor.utilities;
+
+/**
+ * JMX view of a device's {@link DeviceMetrics}. Times are in miliseconds.
+ */
+public interface DeviceMetricsMBean {
+
+	String getDevice();
+
+	long getCommands();
+
+	long getConnects();
+
+	long getReconnects();
+
+	long getTimeouts();
+
+	long getErrors();
+
+	long getBytesSent();
+
+	long getBytesReceived();
+
+	double getCommandMillisMean();
+
+	double getCommandMillis50th();
+
+	double getCommandMillis99th();
+
+	double getCommandMillisMax();
+
+	double getConnectMillis99th();
+
+	double getSendMillis99th();
+
+	double getFirstPacketMillis99th();
+
+	double getResponseMillis99th();
+
+	double getTailMillis99th();
+
+	double getSmoothedResponseMillis();
+
+	double getResponseVariationMillis();
+
+	double getResponseBytesMean();
+
+	double getResponsePacketsMean();
+
+	/**
+	 * Starts every counter and histogram again from zero
+	 */
+	void reset();
+}
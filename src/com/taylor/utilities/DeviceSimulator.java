@@ -0,0 +1,522 @@
+package com.taylor.utilities;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A TCP device for load testing, answering commands from a config file. Each
+ * &lt;command&gt; with a response attribute is answered with it:
+ *
+ * <pre>
+ * &lt;command name="powerQuery" value="!1PWRQSTN&amp;#13;" response="!1PWR01&amp;#13;"/&gt;
+ * </pre>
+ *
+ * A command with extra characters after a known value, such as a parameter,
+ * gets the response of the longest value it starts with. Unknown commands get
+ * no answer unless {@link #setUnknownResponse(String)} says otherwise.
+ * <p>
+ * Responses can be delayed, with jitter, split into fragments written apart,
+ * and interleaved with unsolicited pushes; connections can be dropped at
+ * random. Every simulator shares one selector thread and one timer, so
+ * thousands can run in one JVM for a fleet of {@link CommunicationDevice}s
+ * to be stress tested against.
+ * <p>
+ * Run from the command line with:
+ * java com.taylor.utilities.DeviceSimulator config.xml [firstPort] [count]
+ */
+public class DeviceSimulator implements AutoCloseable {
+
+	private final ConfigSnapshot config;
+	private final ServerSocketChannel server;
+	private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+	private final AtomicLong commandsReceived = new AtomicLong();
+	private final AtomicLong responsesSent = new AtomicLong();
+	private volatile ResponseFramer commandFramer = DelimiterFramer.CR;
+	private volatile Charset charset = StandardCharsets.ISO_8859_1;
+	private volatile String unknownResponse;
+	private volatile int latency;
+	private volatile int jitter;
+	private volatile int fragmentSize;
+	private volatile int fragmentGap;
+	private volatile double dropRate;
+
+	private static class DefaultHolder {
+		private static final Loop loop = new Loop();
+	}
+
+	/**
+	 * Starts a simulator on a free loopback port
+	 * @param configFilePath config XML file with the commands and responses
+	 * @throws Exception if the config cannot be read or the port opened
+	 */
+	public DeviceSimulator(String configFilePath) throws Exception {
+		this(ConfigCache.getDefault().get(configFilePath), new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	}
+
+	/**
+	 * Starts a simulator
+	 * @param config commands and responses to simulate
+	 * @param address address to listen on, port zero picking a free one
+	 * @throws IOException if the address cannot be listened on
+	 */
+	public DeviceSimulator(ConfigSnapshot config, InetSocketAddress address) throws IOException {
+		this.config = config;
+		this.server = ServerSocketChannel.open();
+		server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+		server.bind(address, 1024);
+		server.configureBlocking(false);
+		DefaultHolder.loop.register(server, SelectionKey.OP_ACCEPT, this::accept);
+	}
+
+	/**
+	 * @return port the simulator listens on
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * @return number of connections open
+	 */
+	public int getConnectionCount() {
+		return clients.size();
+	}
+
+	/**
+	 * @return number of commands received
+	 */
+	public long getCommandsReceived() {
+		return commandsReceived.get();
+	}
+
+	/**
+	 * @return number of responses written, not counting pushes
+	 */
+	public long getResponsesSent() {
+		return responsesSent.get();
+	}
+
+	/**
+	 * @param framer finds where each command ends, CR by default
+	 */
+	public void setCommandFramer(ResponseFramer framer) {
+		this.commandFramer = framer;
+	}
+
+	/**
+	 * @param charset charset commands are decoded and responses encoded with,
+	 *            ISO-8859-1 by default
+	 */
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+	}
+
+	/**
+	 * @param response answer to commands not in the config, or null for none
+	 */
+	public void setUnknownResponse(String response) {
+		this.unknownResponse = response;
+	}
+
+	/**
+	 * Delays every response. Responses on one connection still go out in the
+	 * order the commands arrived.
+	 * @param latency miliseconds before each response is written
+	 * @param jitter up to this many more miliseconds, chosen at random
+	 */
+	public void setLatency(int latency, int jitter) {
+		this.latency = latency;
+		this.jitter = jitter;
+	}
+
+	/**
+	 * Splits responses into fragments written separately, so the client sees
+	 * partial responses
+	 * @param fragmentSize most bytes per write, zero to write whole responses
+	 * @param fragmentGap miliseconds between fragments
+	 */
+	public void setFragmentation(int fragmentSize, int fragmentGap) {
+		this.fragmentSize = fragmentSize;
+		this.fragmentGap = fragmentGap;
+	}
+
+	/**
+	 * @param dropRate chance, 0 to 1, that a command makes the simulator close
+	 *            the connection instead of answering
+	 */
+	public void setDropRate(double dropRate) {
+		this.dropRate = dropRate;
+	}
+
+	/**
+	 * Sends a message the device reports on its own to every connection
+	 * @param message unsolicited message
+	 */
+	public void push(String message) {
+		byte[] bytes = message.getBytes(charset);
+		for (Client client : clients) {
+			DefaultHolder.loop.execute(() -> client.write(ByteBuffer.wrap(bytes)));
+		}
+	}
+
+	/**
+	 * Closes every open connection, as a device does when it resets
+	 */
+	public void dropConnections() {
+		for (Client client : clients) {
+			DefaultHolder.loop.execute(client::close);
+		}
+	}
+
+	/**
+	 * Stops listening and closes every connection
+	 */
+	@Override
+	public void close() {
+		dropConnections();
+		String source = "device-simulator:" + getPort();
+		DefaultHolder.loop.execute(() -> {
+			try {
+				server.close();
+			} catch (IOException e) {
+				AsyncLog.getDefault().log(LogLevel.WARN, source, "Could not close listening socket", e);
+			}
+		});
+	}
+
+	/**
+	 * @param command command received, without any framing removed
+	 * @return the configured response, or null to stay silent
+	 */
+	protected String respond(String command) {
+		String response = config.getResponses().get(command);
+		if (response != null) {
+			return response;
+		}
+		ResponseIndex.Match match = config.getResponseIndex().decode(command);
+		if (match != null) {
+			response = config.getResponses().get(match.getCommandValue());
+			if (response != null) {
+				return response;
+			}
+		}
+		return unknownResponse;
+	}
+
+	private void accept(SelectionKey key) throws IOException {
+		SocketChannel channel;
+		while ((channel = server.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			Client client = new Client(channel);
+			clients.add(client);
+			client.key = DefaultHolder.loop.register(channel, SelectionKey.OP_READ, client::ready);
+		}
+	}
+
+	/**
+	 * One connection to the simulator, only touched on the selector thread
+	 */
+	private class Client {
+
+		private final SocketChannel channel;
+		private final Queue<ByteBuffer> outbound = new ArrayDeque<ByteBuffer>();
+		private ByteBuffer inbound = ByteBuffer.allocate(256);
+		private SelectionKey key;
+		// when the last response was scheduled, so later ones are not sent before it
+		private long lastDue;
+		// fragments waiting for their time, in the order they are due
+		private final Queue<ByteBuffer> delayed = new ArrayDeque<ByteBuffer>();
+
+		Client(SocketChannel channel) {
+			this.channel = channel;
+			this.lastDue = System.nanoTime();
+		}
+
+		void ready(SelectionKey selected) {
+			try {
+				if (selected.isReadable()) {
+					read();
+				}
+				if (selected.isValid() && selected.isWritable()) {
+					flush();
+				}
+			} catch (IOException | CancelledKeyException e) {
+				close();
+			}
+		}
+
+		private void read() throws IOException {
+			if (!inbound.hasRemaining()) {
+				ByteBuffer larger = ByteBuffer.allocate(inbound.capacity() * 2);
+				inbound.flip();
+				inbound = larger.put(inbound);
+			}
+			int read = channel.read(inbound);
+			if (read < 0) {
+				close();
+				return;
+			}
+			inbound.flip();
+			while (inbound.hasRemaining()) {
+				int length;
+				try {
+					length = commandFramer.frameLength(inbound);
+				} catch (RuntimeException e) {
+					unframeable(e);
+					return;
+				}
+				if (length == 0) {
+					// a frame is never empty, so the framer would never move on
+					unframeable(null);
+					return;
+				}
+				if (length < 0 || length > inbound.remaining()) {
+					break;
+				}
+				byte[] command = new byte[length];
+				inbound.get(command);
+				received(new String(command, charset));
+				if (!channel.isOpen()) {
+					return;
+				}
+			}
+			inbound.compact();
+		}
+
+		/**
+		 * Closes a connection whose commands the framer cannot split, rather
+		 * than wait for data that will never frame or read it again
+		 * @param e what the framer threw, or null if it gave an empty frame
+		 */
+		private void unframeable(RuntimeException e) {
+			AsyncLog.getDefault().log(LogLevel.WARN, "device-simulator:" + getPort(),
+					e == null ? "Command framer gave an empty frame, closing connection" : "Could not frame command, closing connection", e);
+			close();
+		}
+
+		private void received(String command) {
+			commandsReceived.incrementAndGet();
+			if (dropRate > 0 && ThreadLocalRandom.current().nextDouble() < dropRate) {
+				close();
+				return;
+			}
+			String response = respond(command);
+			if (response == null) {
+				return;
+			}
+			responsesSent.incrementAndGet();
+			byte[] bytes = response.getBytes(charset);
+
+			long delay = latency + (jitter > 0 ? ThreadLocalRandom.current().nextInt(jitter + 1) : 0);
+			long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+			if (due - lastDue < 0) {
+				due = lastDue;
+			}
+			int size = fragmentSize > 0 ? fragmentSize : bytes.length;
+			for (int offset = 0; offset < bytes.length; offset += size) {
+				ByteBuffer fragment = ByteBuffer.wrap(bytes, offset, Math.min(size, bytes.length - offset));
+				if (offset > 0) {
+					due += TimeUnit.MILLISECONDS.toNanos(fragmentGap);
+				}
+				writeAt(due, fragment);
+			}
+			lastDue = due;
+		}
+
+		private void writeAt(long due, ByteBuffer bytes) {
+			long wait = due - System.nanoTime();
+			if (wait <= 0 && delayed.isEmpty()) {
+				write(bytes);
+			} else {
+				// each timer task writes the oldest fragment, so fragments due at
+				// almost the same moment cannot overtake each other
+				delayed.add(bytes);
+				DefaultHolder.loop.schedule(() -> {
+					ByteBuffer next = delayed.poll();
+					if (next != null) {
+						write(next);
+					}
+				}, wait);
+			}
+		}
+
+		void write(ByteBuffer bytes) {
+			if (!channel.isOpen()) {
+				return;
+			}
+			outbound.add(bytes);
+			try {
+				flush();
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		private void flush() throws IOException {
+			ByteBuffer next;
+			while ((next = outbound.peek()) != null) {
+				channel.write(next);
+				if (next.hasRemaining()) {
+					// the socket is full - finish when it can take more
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+				outbound.poll();
+			}
+			if (key.isValid()) {
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+
+		void close() {
+			clients.remove(this);
+			outbound.clear();
+			delayed.clear();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+
+	/**
+	 * What a registered channel does when it is ready
+	 */
+	private interface Handler {
+		void ready(SelectionKey key) throws IOException;
+	}
+
+	/**
+	 * The selector thread and timer every simulator shares
+	 */
+	private static final class Loop implements Runnable {
+
+		private final Selector selector;
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+		private final ScheduledExecutorService timer;
+		private final Thread thread;
+
+		Loop() {
+			try {
+				selector = Selector.open();
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to open selector", e);
+			}
+			timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread timerThread = new Thread(runnable, "device-simulator-timer");
+				timerThread.setDaemon(true);
+				return timerThread;
+			});
+			thread = new Thread(this, "device-simulator");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		/**
+		 * Registers the channel on the selector thread and waits until it is
+		 */
+		SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws IOException {
+			if (Thread.currentThread() == thread) {
+				return channel.register(selector, ops, handler);
+			}
+			CompletableFuture<SelectionKey> registered = new CompletableFuture<SelectionKey>();
+			execute(() -> {
+				try {
+					registered.complete(channel.register(selector, ops, handler));
+				} catch (IOException e) {
+					registered.completeExceptionally(e);
+				}
+			});
+			try {
+				return registered.get();
+			} catch (Exception e) {
+				throw new IOException("Could not register with the simulator's selector", e);
+			}
+		}
+
+		void execute(Runnable task) {
+			if (Thread.currentThread() == thread) {
+				task.run();
+			} else {
+				tasks.add(task);
+				selector.wakeup();
+			}
+		}
+
+		void schedule(Runnable task, long nanos) {
+			timer.schedule(() -> execute(task), Math.max(0, nanos), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					selector.select();
+					Runnable task;
+					while ((task = tasks.poll()) != null) {
+						task.run();
+					}
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						try {
+							((Handler) key.attachment()).ready(key);
+						} catch (IOException | CancelledKeyException e) {
+							key.channel().close();
+						}
+					}
+				} catch (Exception e) {
+					AsyncLog.getDefault().log(LogLevel.ERROR, "device-simulator", "Simulator loop failed", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts simulators on loopback from the command line and runs until
+	 * stopped
+	 * @param args config XML file, first port (0 for any) and number of
+	 *            simulators
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.out.println("Usage: DeviceSimulator config.xml [firstPort] [count]");
+			return;
+		}
+		ConfigSnapshot config = ConfigCache.getDefault().get(args[0]);
+		int firstPort = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+		int count = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		for (int i = 0; i < count; i++) {
+			DeviceSimulator simulator = new DeviceSimulator(config, 
+					new InetSocketAddress(InetAddress.getLoopbackAddress(), firstPort == 0 ? 0 : firstPort + i));
+			System.out.println("Simulating " + args[0] + " on port " + simulator.getPort());
+		}
+		Thread.currentThread().join();
+	}
+}
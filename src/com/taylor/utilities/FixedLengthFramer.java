@@ -0,0 +1,27 @@
+package com.taylor.utilities;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames responses that are always the same number of bytes
+ */
+public class FixedLengthFramer implements ResponseFramer {
+
+	private final int length;
+
+	/**
+	 * Constructor
+	 * @param length number of bytes in every response
+	 */
+	public FixedLengthFramer(int length) {
+		if (length < 1) {
+			throw new IllegalArgumentException("length must be at least 1");
+		}
+		this.length = length;
+	}
+
+	@Override
+	public int frameLength(ByteBuffer received) {
+		return received.remaining() >= length ? length : -1;
+	}
+}
@@ -0,0 +1,222 @@
+package com.taylor.utilities;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hex encoding and decoding driven by lookup tables. Every method can write
+ * into a buffer the caller supplies, so converting a frame for logging or
+ * decoding needs no intermediate strings. Hex is written in lower case, the
+ * way {@link Util} always has; either case is accepted when decoding.
+ */
+public final class HexCodec {
+
+	private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+	/** both hex digits of every byte value, high digit first **/
+	private static final char[] BYTE_TO_HEX = new char[512];
+
+	/** value of each hex digit character, or -1 **/
+	private static final byte[] HEX_TO_VALUE = new byte[128];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			BYTE_TO_HEX[i << 1] = DIGITS[i >>> 4];
+			BYTE_TO_HEX[(i << 1) + 1] = DIGITS[i & 0xF];
+		}
+		for (int i = 0; i < HEX_TO_VALUE.length; i++) {
+			HEX_TO_VALUE[i] = -1;
+		}
+		for (int i = 0; i < 10; i++) {
+			HEX_TO_VALUE['0' + i] = (byte) i;
+		}
+		for (int i = 0; i < 6; i++) {
+			HEX_TO_VALUE['a' + i] = (byte) (10 + i);
+			HEX_TO_VALUE['A' + i] = (byte) (10 + i);
+		}
+	}
+
+	private HexCodec() {
+	}
+
+	/**
+	 * @param bytes bytes to encode
+	 * @return two hex digits per byte
+	 */
+	public static String encode(byte[] bytes) {
+		char[] hex = new char[bytes.length << 1];
+		encode(bytes, 0, bytes.length, hex, 0);
+		return new String(hex);
+	}
+
+	/**
+	 * Encodes bytes into the caller's array
+	 * @param bytes bytes to encode
+	 * @param offset first byte to encode
+	 * @param length number of bytes to encode
+	 * @param hex array to write two hex digits per byte into
+	 * @param hexOffset where in hex to start writing
+	 * @return number of chars written
+	 */
+	public static int encode(byte[] bytes, int offset, int length, char[] hex, int hexOffset) {
+		int out = hexOffset;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			int pair = (bytes[i] & 0xFF) << 1;
+			hex[out++] = BYTE_TO_HEX[pair];
+			hex[out++] = BYTE_TO_HEX[pair + 1];
+		}
+		return out - hexOffset;
+	}
+
+	/**
+	 * Encodes the bytes from position to limit, leaving the position unchanged
+	 * @param bytes bytes to encode
+	 * @param hex builder to append two hex digits per byte to
+	 * @return hex
+	 */
+	public static StringBuilder encode(ByteBuffer bytes, StringBuilder hex) {
+		hex.ensureCapacity(hex.length() + (bytes.remaining() << 1));
+		for (int i = bytes.position(), end = bytes.limit(); i < end; i++) {
+			appendByte(bytes.get(i), hex);
+		}
+		return hex;
+	}
+
+	/**
+	 * Encodes each char as its code in hex, at least two digits long. Chars
+	 * above 0xFF take as many digits as their code needs.
+	 * @param chars chars to encode
+	 * @param hex builder to append to
+	 * @return hex
+	 */
+	public static StringBuilder encode(CharSequence chars, StringBuilder hex) {
+		int length = chars.length();
+		hex.ensureCapacity(hex.length() + (length << 1));
+		for (int i = 0; i < length; i++) {
+			appendChar(chars.charAt(i), hex);
+		}
+		return hex;
+	}
+
+	/**
+	 * @param c char to encode
+	 * @param hex builder to append the char's code to, at least two digits long
+	 * @return hex
+	 */
+	public static StringBuilder appendChar(char c, StringBuilder hex) {
+		if (c <= 0xFF) {
+			return hex.append(BYTE_TO_HEX[c << 1]).append(BYTE_TO_HEX[(c << 1) + 1]);
+		}
+		return hex.append(Integer.toHexString(c));
+	}
+
+	/**
+	 * @param b byte to encode
+	 * @param hex builder to append the byte's two hex digits to
+	 * @return hex
+	 */
+	public static StringBuilder appendByte(int b, StringBuilder hex) {
+		int pair = (b & 0xFF) << 1;
+		return hex.append(BYTE_TO_HEX[pair]).append(BYTE_TO_HEX[pair + 1]);
+	}
+
+	/**
+	 * @param hex pairs of hex digits; a trailing odd digit is ignored
+	 * @return the decoded bytes
+	 * @throws NumberFormatException if a char is not a hex digit
+	 */
+	public static byte[] decode(CharSequence hex) {
+		byte[] bytes = new byte[hex.length() >> 1];
+		decode(hex, bytes, 0);
+		return bytes;
+	}
+
+	/**
+	 * Decodes into the caller's array
+	 * @param hex pairs of hex digits; a trailing odd digit is ignored
+	 * @param bytes array to write one byte per pair into
+	 * @param offset where in bytes to start writing
+	 * @return number of bytes written
+	 * @throws NumberFormatException if a char is not a hex digit
+	 */
+	public static int decode(CharSequence hex, byte[] bytes, int offset) {
+		int pairs = hex.length() >> 1;
+		for (int i = 0; i < pairs; i++) {
+			bytes[offset + i] = (byte) pairValue(hex, i << 1);
+		}
+		return pairs;
+	}
+
+	/**
+	 * Decodes into the caller's buffer at its position
+	 * @param hex pairs of hex digits; a trailing odd digit is ignored
+	 * @param bytes buffer to put one byte per pair into
+	 * @return bytes
+	 * @throws NumberFormatException if a char is not a hex digit
+	 */
+	public static ByteBuffer decode(CharSequence hex, ByteBuffer bytes) {
+		int pairs = hex.length() >> 1;
+		for (int i = 0; i < pairs; i++) {
+			bytes.put((byte) pairValue(hex, i << 1));
+		}
+		return bytes;
+	}
+
+	/**
+	 * Decodes each pair of hex digits to the char with that code
+	 * @param hex pairs of hex digits; a trailing odd digit is ignored
+	 * @param chars builder to append one char per pair to
+	 * @return chars
+	 * @throws NumberFormatException if a char is not a hex digit
+	 */
+	public static StringBuilder decode(CharSequence hex, StringBuilder chars) {
+		int pairs = hex.length() >> 1;
+		chars.ensureCapacity(chars.length() + pairs);
+		for (int i = 0; i < pairs; i++) {
+			chars.append((char) pairValue(hex, i << 1));
+		}
+		return chars;
+	}
+
+	/**
+	 * @param c char to look up
+	 * @return the hex digit's value, or -1 if c is not a hex digit
+	 */
+	public static int digitValue(char c) {
+		return c < HEX_TO_VALUE.length ? HEX_TO_VALUE[c] : -1;
+	}
+
+	/**
+	 * Reads the chars as the bytes of a big endian number, the way a binary
+	 * length or counter field arrives in a String response
+	 * @param chars chars of the number, most significant first
+	 * @return the number
+	 * @throws NumberFormatException if chars is empty or the number does not
+	 *             fit in an int
+	 */
+	public static int parseBigEndian(CharSequence chars) {
+		int length = chars.length();
+		if (length == 0) {
+			throw new NumberFormatException("For input string: \"\"");
+		}
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			char c = chars.charAt(i);
+			// a char above 0xFF stands for as many hex digits as its code needs
+			int bits = c <= 0xFF ? 8 : (32 - Integer.numberOfLeadingZeros(c) + 3) & ~3;
+			value = (value << bits) | c;
+			if (value > Integer.MAX_VALUE) {
+				throw new NumberFormatException("Big endian value of " + length + " chars does not fit in an int");
+			}
+		}
+		return (int) value;
+	}
+
+	private static int pairValue(CharSequence hex, int index) {
+		int high = digitValue(hex.charAt(index));
+		int low = digitValue(hex.charAt(index + 1));
+		if ((high | low) < 0) {
+			throw new NumberFormatException("For input string: \"" + hex.subSequence(index, index + 2) + "\"");
+		}
+		return (high << 4) | low;
+	}
+}
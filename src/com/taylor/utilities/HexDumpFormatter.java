@@ -0,0 +1,140 @@
+package com.taylor.utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Formats bytes as a classic hex dump, one line per row of bytes:
+ *
+ * <pre>
+ * 00000000  21 31 50 57 52 30 31 0d  0a 21 31 4d 56 4c 32 30  |!1PWR01..!1MVL20|
+ * </pre>
+ *
+ * Each line is built with table lookups straight into the output, with no
+ * per byte formatting, so whole wire traces can be captured cheaply.
+ */
+public class HexDumpFormatter {
+
+	private static final int DEFAULT_BYTES_PER_LINE = 16;
+
+	private final int bytesPerLine;
+
+	/**
+	 * Constructor - 16 bytes per line
+	 */
+	public HexDumpFormatter() {
+		this(DEFAULT_BYTES_PER_LINE);
+	}
+
+	/**
+	 * Constructor
+	 * @param bytesPerLine bytes shown on each line, with an extra space after
+	 *            every eighth
+	 */
+	public HexDumpFormatter(int bytesPerLine) {
+		if (bytesPerLine <= 0) {
+			throw new IllegalArgumentException("bytesPerLine must be positive: " + bytesPerLine);
+		}
+		this.bytesPerLine = bytesPerLine;
+	}
+
+	/**
+	 * @param bytes bytes to dump
+	 * @return the dump
+	 */
+	public String format(byte[] bytes) {
+		return format(bytes, 0, bytes.length, new StringBuilder(lineLength() * lines(bytes.length))).toString();
+	}
+
+	/**
+	 * Appends the dump of a range of bytes to the caller's builder, which can be
+	 * cleared and reused for the next dump
+	 * @param bytes bytes to dump
+	 * @param offset first byte to dump
+	 * @param length number of bytes to dump
+	 * @param out builder to append to
+	 * @return out
+	 */
+	public StringBuilder format(byte[] bytes, int offset, int length, StringBuilder out) {
+		out.ensureCapacity(out.length() + lineLength() * lines(length));
+		for (int line = 0; line < length; line += bytesPerLine) {
+			appendLine(bytes, offset + line, Math.min(bytesPerLine, length - line), line, out);
+		}
+		return out;
+	}
+
+	/**
+	 * Appends the dump of the bytes from position to limit, leaving the
+	 * position unchanged
+	 * @param bytes bytes to dump
+	 * @param out builder to append to
+	 * @return out
+	 */
+	public StringBuilder format(ByteBuffer bytes, StringBuilder out) {
+		if (bytes.hasArray()) {
+			return format(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining(), out);
+		}
+		byte[] copy = new byte[bytes.remaining()];
+		bytes.duplicate().get(copy);
+		return format(copy, 0, copy.length, out);
+	}
+
+	/**
+	 * Writes the dump of a range of bytes to any Appendable, such as a Writer
+	 * or PrintStream, one line at a time
+	 * @param bytes bytes to dump
+	 * @param offset first byte to dump
+	 * @param length number of bytes to dump
+	 * @param out where to write the dump
+	 * @return out
+	 * @throws IOException if out cannot be written to
+	 */
+	public <A extends Appendable> A format(byte[] bytes, int offset, int length, A out) throws IOException {
+		StringBuilder line = new StringBuilder(lineLength());
+		for (int start = 0; start < length; start += bytesPerLine) {
+			line.setLength(0);
+			appendLine(bytes, offset + start, Math.min(bytesPerLine, length - start), start, line);
+			out.append(line);
+		}
+		return out;
+	}
+
+	/**
+	 * Appends one line: offset, hex bytes padded to a full row, then the
+	 * printable characters between bars
+	 */
+	private void appendLine(byte[] bytes, int start, int count, int address, StringBuilder out) {
+		HexCodec.appendByte(address >>> 24, out);
+		HexCodec.appendByte(address >>> 16, out);
+		HexCodec.appendByte(address >>> 8, out);
+		HexCodec.appendByte(address, out);
+		out.append(' ');
+
+		for (int i = 0; i < bytesPerLine; i++) {
+			if ((i & 7) == 0) {
+				out.append(' ');
+			}
+			if (i < count) {
+				HexCodec.appendByte(bytes[start + i], out).append(' ');
+			} else {
+				out.append("   ");
+			}
+		}
+
+		out.append(" |");
+		for (int i = 0; i < count; i++) {
+			int b = bytes[start + i] & 0xFF;
+			out.append(b >= 0x20 && b < 0x7F ? (char) b : '.');
+		}
+		out.append("|\n");
+	}
+
+	private int lines(int length) {
+		return (length + bytesPerLine - 1) / bytesPerLine;
+	}
+
+	private int lineLength() {
+		// offset, hex with group spaces, bars and text, newline
+		return 9 + bytesPerLine * 3 + (bytesPerLine + 7) / 8 + 2 + bytesPerLine + 2;
+	}
+}
@@ -0,0 +1,127 @@
+package com.taylor.utilities;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts non-negative values, such as latencies in nanoseconds or bytes per
+ * response, in buckets laid out like an HDR histogram: exact below 64, then 32
+ * buckets per power of two, so any value is reported within about 3% of what
+ * was recorded. Recording is a few atomic adds and never allocates, so it is
+ * cheap enough to leave on in the I/O path.
+ */
+public class Histogram {
+
+	/** buckets per power of two is half of 1 &lt;&lt; SUB_BUCKET_BITS **/
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HALF = SUB_BUCKETS >> 1;
+	private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param value value to count; negative values count as zero
+	 */
+	public void record(long value) {
+		long v = Math.max(value, 0);
+		counts.incrementAndGet(indexOf(v));
+		count.increment();
+		total.add(v);
+		long current;
+		while (v > (current = max.get()) && !max.compareAndSet(current, v)) {
+			// another thread raised the max first - try again against its value
+		}
+	}
+
+	/**
+	 * @return number of values recorded
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return exact mean of the values recorded, or 0 if there are none
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) total.sum() / n;
+	}
+
+	/**
+	 * @return largest value recorded, exactly
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile 0 to 100
+	 * @return highest value in the bucket holding that percentile, or 0 if
+	 *         nothing has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			n += snapshot[i];
+		}
+		if (n == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= target) {
+				return Math.min(highestValueAt(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forgets every value. Values recorded while the reset is under way may be
+	 * partly kept.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.reset();
+		total.reset();
+		max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + " mean=" + Math.round(getMean()) + " p50=" + getValueAtPercentile(50)
+				+ " p99=" + getValueAtPercentile(99) + " max=" + getMax();
+	}
+
+	private static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		// keep the top SUB_BUCKET_BITS bits of the value, the highest always set
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int top = (int) (value >>> shift);
+		return SUB_BUCKETS + (shift - 1) * HALF + (top - HALF);
+	}
+
+	private static long highestValueAt(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int k = index - SUB_BUCKETS;
+		int shift = k / HALF + 1;
+		long top = k % HALF + HALF;
+		return ((top + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,63 @@
+package com.taylor.utilities;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames responses that carry their length in a fixed position header, such
+ * as eISCP. The frame length is the length field's offset and size, plus the
+ * big endian value of the field, plus the adjustment for any header bytes that
+ * follow the field.
+ */
+public class LengthFieldFramer implements ResponseFramer {
+
+	/** eISCP header size */
+	private static final int EISCP_HEADER_SIZE = 16;
+
+	private final int lengthFieldOffset;
+	private final int lengthFieldSize;
+	private final int lengthAdjustment;
+
+	/**
+	 * Constructor
+	 * @param lengthFieldOffset byte offset of the length field in the header
+	 * @param lengthFieldSize size of the length field, 1 to 4 bytes
+	 * @param lengthAdjustment bytes to add to the length field value
+	 */
+	public LengthFieldFramer(int lengthFieldOffset, int lengthFieldSize, int lengthAdjustment) {
+		if (lengthFieldSize < 1 || lengthFieldSize > 4) {
+			throw new IllegalArgumentException("lengthFieldSize must be between 1 and 4");
+		}
+		this.lengthFieldOffset = lengthFieldOffset;
+		this.lengthFieldSize = lengthFieldSize;
+		this.lengthAdjustment = lengthAdjustment;
+	}
+
+	/**
+	 * eISCP packets: "ISCP", header size, data size, version and reserved
+	 * bytes, followed by the data
+	 * @return framer for eISCP packets
+	 */
+	public static LengthFieldFramer eiscp() {
+		return new LengthFieldFramer(8, 4, EISCP_HEADER_SIZE - 12);
+	}
+
+	@Override
+	public int frameLength(ByteBuffer received) {
+		int headerEnd = lengthFieldOffset + lengthFieldSize;
+		if (received.remaining() < headerEnd) {
+			return -1;
+		}
+
+		long value = 0;
+		int start = received.position() + lengthFieldOffset;
+		for (int i = 0; i < lengthFieldSize; i++) {
+			value = (value << 8) | (received.get(start + i) & 0xff);
+		}
+
+		long length = headerEnd + value + lengthAdjustment;
+		if (length > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Frame length " + length + " too large");
+		}
+		return length <= received.remaining() ? (int) length : -1;
+	}
+}
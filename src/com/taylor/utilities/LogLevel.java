@@ -0,0 +1,35 @@
+package com.taylor.utilities;
+
+/**
+ * How much a device or config logs, from nothing to every packet
+ */
+public enum LogLevel {
+
+	/** nothing is logged **/
+	OFF,
+	/** failures, such as a device that cannot be reached **/
+	ERROR,
+	/** problems that do not stop anything, such as a macro step naming no command **/
+	WARN,
+	/** each command sent and connection made - the config's &lt;info&gt; setting **/
+	INFO,
+	/** every packet and frame in detail - the config's &lt;debug&gt; setting **/
+	DEBUG;
+
+	/**
+	 * @param level level of a message
+	 * @return true if a message of that level is logged at this level
+	 */
+	public boolean includes(LogLevel level) {
+		return level != OFF && level.ordinal() <= ordinal();
+	}
+
+	/**
+	 * @param debug the config's debug setting
+	 * @param info the config's info setting
+	 * @return the level the two settings stand for
+	 */
+	public static LogLevel of(boolean debug, boolean info) {
+		return debug ? DEBUG : info ? INFO : WARN;
+	}
+}
@@ -0,0 +1,19 @@
+package com.taylor.utilities;
+
+/**
+ * Where {@link AsyncLog} delivers messages. Only the log's writer thread calls
+ * a sink, one message at a time, so a sink may block without holding up the
+ * threads doing device I/O.
+ */
+public interface LogSink {
+
+	/**
+	 * @param level level of the message
+	 * @param time when the message was logged, in miliseconds since the epoch
+	 * @param source device (ip:port) or config file the message is about
+	 * @param message the message
+	 * @param error exception the message is about, or null
+	 */
+	void write(LogLevel level, long time, String source, String message, Throwable error);
+
+}
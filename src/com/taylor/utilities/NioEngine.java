@@ -0,0 +1,231 @@
+package com.taylor.utilities;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector based transport shared by all {@link CommunicationDevice} instances.
+ * A small fixed set of I/O threads, each owning one {@link Selector}, services
+ * every open {@link DeviceConnection} so that thousands of devices do not need
+ * a parked thread each.
+ */
+public class NioEngine {
+
+	private static final int DEFAULT_IO_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	private final IoLoop[] loops;
+	private final AtomicInteger nextLoop = new AtomicInteger();
+	private final ScheduledExecutorService timer;
+
+	private static class DefaultHolder {
+		private static final NioEngine instance = new NioEngine(DEFAULT_IO_THREADS);
+	}
+
+	/** @return the process wide engine used when a device does not supply its own **/
+	public static NioEngine getDefault() {
+		return DefaultHolder.instance;
+	}
+
+	/**
+	 * Constructor
+	 * @param ioThreads number of selector threads to run
+	 */
+	public NioEngine(int ioThreads) {
+		if (ioThreads < 1) {
+			throw new IllegalArgumentException("ioThreads must be at least 1");
+		}
+		timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "nio-engine-timer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		loops = new IoLoop[ioThreads];
+		for (int i = 0; i < ioThreads; i++) {
+			loops[i] = new IoLoop("nio-engine-" + i);
+		}
+	}
+
+	/**
+	 * Opens a connection to the device and blocks until it is established
+	 * @param ipAddress ip address to connect to
+	 * @param port network port to connect to
+	 * @return the open connection
+	 * @throws IOException if the connection could not be established
+	 */
+	public DeviceConnection connect(String ipAddress, int port) throws IOException {
+		try {
+			return connectAsync(ipAddress, port).get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted connecting to " + ipAddress + ":" + port);
+		}
+	}
+
+	/**
+	 * Starts a non-blocking connection to the device
+	 * @param ipAddress ip address to connect to
+	 * @param port network port to connect to
+	 * @return future completed with the connection once established
+	 */
+	public CompletableFuture<DeviceConnection> connectAsync(String ipAddress, int port) {
+		return connectAsync(ipAddress, port, 0);
+	}
+
+	/**
+	 * Starts a non-blocking connection to the device
+	 * @param ipAddress ip address to connect to
+	 * @param port network port to connect to
+	 * @param timeout miliseconds to wait for the connection, zero waits until
+	 *            the operating system gives up
+	 * @return future completed with the connection once established
+	 */
+	public CompletableFuture<DeviceConnection> connectAsync(String ipAddress, int port, int timeout) {
+		InetSocketAddress address = new InetSocketAddress(ipAddress, port);
+		IoLoop loop = loops[Math.abs(nextLoop.getAndIncrement() % loops.length)];
+		DeviceConnection connection = new DeviceConnection(ipAddress, port, loop, this);
+		loop.execute(() -> connection.start(loop.selector, address));
+		CompletableFuture<DeviceConnection> future = connection.getConnectFuture();
+		if (timeout > 0) {
+			ScheduledFuture<?> timeoutTask = schedule(() -> connection.connectTimedOut(), timeout);
+			future.whenComplete((opened, e) -> timeoutTask.cancel(false));
+		}
+		return future;
+	}
+
+	/**
+	 * Runs the task once the delay has passed without holding a thread while
+	 * waiting. The task must not block.
+	 * @param task work to run
+	 * @param delay miliseconds to wait before running the task
+	 * @return handle that can cancel the task
+	 */
+	public ScheduledFuture<?> schedule(Runnable task, long delay) {
+		return timer.schedule(task, Math.max(0, delay), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the I/O threads and closes every connection they own
+	 */
+	public void shutdown() {
+		timer.shutdownNow();
+		for (IoLoop loop : loops) {
+			loop.shutdown();
+		}
+	}
+
+	/**
+	 * A single selector thread
+	 */
+	static final class IoLoop implements Runnable {
+
+		private final Selector selector;
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+		private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		private final Thread thread;
+		private volatile boolean running = true;
+
+		IoLoop(String name) {
+			try {
+				selector = Selector.open();
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to open selector", e);
+			}
+			thread = new Thread(this, name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		/**
+		 * Runs the task on the selector thread
+		 * @param task work that touches selector state
+		 */
+		void execute(Runnable task) {
+			if (Thread.currentThread() == thread) {
+				task.run();
+			} else {
+				tasks.add(task);
+				selector.wakeup();
+			}
+		}
+
+		void shutdown() {
+			running = false;
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				try {
+					selector.select();
+					runTasks();
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						process(key);
+					}
+				} catch (Exception e) {
+					AsyncLog.getDefault().log(LogLevel.ERROR, thread.getName(), "Selector loop failed", e);
+				}
+			}
+			for (SelectionKey key : selector.keys()) {
+				((DeviceConnection) key.attachment()).close();
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				AsyncLog.getDefault().log(LogLevel.WARN, thread.getName(), "Could not close selector", e);
+			}
+		}
+
+		private void runTasks() {
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				try {
+					task.run();
+				} catch (Exception e) {
+					AsyncLog.getDefault().log(LogLevel.ERROR, thread.getName(), "Selector task failed", e);
+				}
+			}
+		}
+
+		private void process(SelectionKey key) {
+			DeviceConnection connection = (DeviceConnection) key.attachment();
+			try {
+				if (key.isConnectable()) {
+					connection.onConnectable();
+				}
+				if (key.isValid() && key.isReadable()) {
+					connection.onReadable(readBuffer);
+				}
+				if (key.isValid() && key.isWritable()) {
+					connection.onWritable();
+				}
+			} catch (CancelledKeyException e) {
+				connection.close();
+			}
+		}
+	}
+}
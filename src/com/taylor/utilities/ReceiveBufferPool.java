@@ -0,0 +1,107 @@
+package com.taylor.utilities;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of growable heap buffers that responses are received into, so steady
+ * state reads reuse the same buffers instead of allocating new ones. Buffers
+ * are kept in power of two size classes.
+ */
+public class ReceiveBufferPool {
+
+	private static final int MIN_SHIFT = 8;
+	private static final int MAX_SHIFT = 20;
+	private static final int DEFAULT_MAX_PER_SIZE = 256;
+
+	private final ConcurrentLinkedQueue<ByteBuffer>[] free;
+	private final AtomicInteger[] freeCounts;
+	private final int maxPerSize;
+
+	private static class DefaultHolder {
+		private static final ReceiveBufferPool instance = new ReceiveBufferPool(DEFAULT_MAX_PER_SIZE);
+	}
+
+	/** @return the process wide pool used when a device does not supply its own **/
+	public static ReceiveBufferPool getDefault() {
+		return DefaultHolder.instance;
+	}
+
+	/**
+	 * Constructor
+	 * @param maxPerSize most free buffers kept for each size
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ReceiveBufferPool(int maxPerSize) {
+		this.maxPerSize = maxPerSize;
+		int sizes = MAX_SHIFT - MIN_SHIFT + 1;
+		free = new ConcurrentLinkedQueue[sizes];
+		freeCounts = new AtomicInteger[sizes];
+		for (int i = 0; i < sizes; i++) {
+			free[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+			freeCounts[i] = new AtomicInteger();
+		}
+	}
+
+	/**
+	 * @param capacity smallest capacity needed
+	 * @return a cleared buffer with at least the capacity
+	 */
+	public ByteBuffer acquire(int capacity) {
+		int sizeClass = sizeClass(capacity);
+		if (sizeClass >= free.length) {
+			return ByteBuffer.allocate(capacity);
+		}
+		ByteBuffer buffer = free[sizeClass].poll();
+		if (buffer == null) {
+			return ByteBuffer.allocate(1 << (sizeClass + MIN_SHIFT));
+		}
+		freeCounts[sizeClass].decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Hands a buffer back for reuse. The caller must not touch it afterwards.
+	 * @param buffer buffer from {@link #acquire(int)}, ignored if null
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || buffer.isReadOnly() || buffer.isDirect()) {
+			return;
+		}
+		int capacity = buffer.capacity();
+		int sizeClass = sizeClass(capacity);
+		if (sizeClass >= free.length || capacity != 1 << (sizeClass + MIN_SHIFT)) {
+			return;
+		}
+		if (freeCounts[sizeClass].incrementAndGet() > maxPerSize) {
+			freeCounts[sizeClass].decrementAndGet();
+			return;
+		}
+		free[sizeClass].add(buffer);
+	}
+
+	/**
+	 * Makes room for more bytes, moving the contents to a larger pooled buffer
+	 * and releasing the old one if needed
+	 * @param buffer buffer being filled
+	 * @param needed bytes about to be added
+	 * @return the buffer, or its larger replacement
+	 */
+	public ByteBuffer ensureRemaining(ByteBuffer buffer, int needed) {
+		if (buffer.remaining() >= needed) {
+			return buffer;
+		}
+		ByteBuffer larger = acquire(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+		buffer.flip();
+		larger.put(buffer);
+		release(buffer);
+		return larger;
+	}
+
+	private static int sizeClass(int capacity) {
+		int shift = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1);
+		return Math.max(shift, MIN_SHIFT) - MIN_SHIFT;
+	}
+}
@@ -0,0 +1,119 @@
+package com.taylor.utilities;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Recent responses to query commands, so the same status query asked by
+ * several callers at once goes to the device only once. A query already on
+ * its way to the device is shared by everyone asking for it, and its response
+ * is reused until it is older than the time to live. The least recently used
+ * responses are dropped once the cache is full.
+ */
+class ResponseCache {
+
+	private final long ttlNanos;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final LinkedHashMap<String, CachedResponse> responses;
+
+	/**
+	 * Constructor
+	 * @param ttl miliseconds a response is reused for
+	 * @param maxEntries most responses kept
+	 */
+	ResponseCache(int ttl, int maxEntries) {
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+		this.responses = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Gets the query's response from the cache, or from the device if it is not
+	 * cached or has expired
+	 * @param key identifies the query, such as the command value
+	 * @param query sends the query to the device
+	 * @return future completed with the response
+	 */
+	CompletableFuture<String> get(String key, Supplier<CompletableFuture<String>> query) {
+		CachedResponse cached;
+		CachedResponse created = null;
+		lock.lock();
+		try {
+			cached = responses.get(key);
+			if (cached == null || cached.isExpired()) {
+				created = new CachedResponse();
+				responses.put(key, created);
+				cached = created;
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		if (created != null) {
+			CachedResponse sent = created;
+			CompletableFuture<String> answer;
+			try {
+				answer = query.get();
+			} catch (RuntimeException e) {
+				// fail the shared entry, and evict it below, rather than leave
+				// later callers waiting on a query that was never sent
+				answer = new CompletableFuture<String>();
+				answer.completeExceptionally(e);
+			}
+			answer.whenComplete((response, e) -> {
+				lock.lock();
+				try {
+					if (e != null || response == null || response.length() == 0) {
+						// failures and timeouts are not worth repeating to later callers
+						responses.remove(key, sent);
+					} else {
+						sent.expires = System.nanoTime() + ttlNanos;
+					}
+				} finally {
+					lock.unlock();
+				}
+				if (e != null) {
+					sent.future.completeExceptionally(e);
+				} else {
+					sent.future.complete(response);
+				}
+			});
+		}
+		// each caller gets its own future so none can complete the shared one
+		return cached.future.thenApply(response -> response);
+	}
+
+	/**
+	 * Forgets every cached response, such as after a command that changes the
+	 * device's state. Queries on their way to the device still complete.
+	 */
+	void clear() {
+		lock.lock();
+		try {
+			responses.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static class CachedResponse {
+
+		private final CompletableFuture<String> future = new CompletableFuture<String>();
+		// written under the cache lock; zero while the query is in flight
+		private long expires;
+
+		boolean isExpired() {
+			return future.isDone() && System.nanoTime() - expires >= 0;
+		}
+	}
+}
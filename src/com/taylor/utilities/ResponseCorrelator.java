@@ -0,0 +1,22 @@
+package com.taylor.utilities;
+
+/**
+ * Matches pipelined responses to the commands that caused them for devices
+ * that do not answer strictly in order. Keys are compared with equals().
+ */
+public interface ResponseCorrelator {
+
+	/**
+	 * @param command command being sent
+	 * @return key the command's response will carry
+	 */
+	Object requestKey(String command);
+
+	/**
+	 * @param response framed response received from the device
+	 * @return key identifying which command the response answers, or null if
+	 *         it answers none
+	 */
+	Object responseKey(String response);
+
+}
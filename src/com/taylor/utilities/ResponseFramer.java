@@ -0,0 +1,24 @@
+package com.taylor.utilities;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides where a response from a device ends so it can be returned as soon
+ * as its last byte arrives rather than when a read times out.
+ */
+public interface ResponseFramer {
+
+	/**
+	 * Looks for a complete frame at the start of the received data. The
+	 * buffer's position and limit must not be changed.
+	 * 
+	 * @param received
+	 *            bytes received so far, from position to limit
+	 * @return length of the first complete frame, or -1 if more bytes are
+	 *         needed. A frame is never empty: returning 0, or throwing
+	 *         because the data makes no sense, is a protocol error and the
+	 *         connection is closed.
+	 */
+	int frameLength(ByteBuffer received);
+
+}
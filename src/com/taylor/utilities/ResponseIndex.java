@@ -0,0 +1,182 @@
+package com.taylor.utilities;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps responses back to the config's commands. Command values are stored in
+ * a prefix trie, so a response is decoded in one pass over its characters no
+ * matter how many commands the config has. The command whose value is the
+ * longest prefix of the response matches, and whatever follows that value is
+ * the parameter - "MVL" matches "MVL2A" with parameter "2A".
+ * <p>
+ * Trailing carriage returns and line feeds are ignored on both command values
+ * and responses.
+ */
+public final class ResponseIndex {
+
+	private final Node root;
+
+	/**
+	 * Constructor
+	 * @param commands command values by name
+	 * @param labels labels by command value
+	 */
+	public ResponseIndex(Map<String, String> commands, Map<String, String> labels) {
+		// sorted so that, when two names share a value, the first name wins every time
+		Map<String, String> sorted = new TreeMap<String, String>(commands);
+		Builder rootBuilder = new Builder();
+		for (Map.Entry<String, String> command : sorted.entrySet()) {
+			String value = command.getValue();
+			int length = trimmedLength(value);
+			if (length == 0) {
+				continue;
+			}
+			Builder node = rootBuilder;
+			for (int i = 0; i < length; i++) {
+				node = node.child(value.charAt(i));
+			}
+			if (node.match == null) {
+				node.match = new Match(command.getKey(), value, labels.get(value), "");
+			}
+		}
+		this.root = rootBuilder.build();
+	}
+
+	/**
+	 * @param response response from the device
+	 * @return the command the response belongs to, or null if it matches none
+	 */
+	public Match decode(String response) {
+		if (response == null) {
+			return null;
+		}
+		int length = trimmedLength(response);
+		Node node = root;
+		Match longest = null;
+		int matchedLength = 0;
+		for (int i = 0; i < length; i++) {
+			node = node.child(response.charAt(i));
+			if (node == null) {
+				break;
+			}
+			if (node.match != null) {
+				longest = node.match;
+				matchedLength = i + 1;
+			}
+		}
+		if (longest == null) {
+			return null;
+		}
+		// exact matches share the prebuilt result
+		return matchedLength == length ? longest : longest.withParameter(response.substring(matchedLength, length));
+	}
+
+	private static int trimmedLength(String value) {
+		int length = value.length();
+		while (length > 0 && (value.charAt(length - 1) == '\r' || value.charAt(length - 1) == '\n')) {
+			length--;
+		}
+		return length;
+	}
+
+	/**
+	 * A decoded response
+	 */
+	public static final class Match {
+
+		private final String commandName;
+		private final String commandValue;
+		private final String label;
+		private final String parameter;
+
+		Match(String commandName, String commandValue, String label, String parameter) {
+			this.commandName = commandName;
+			this.commandValue = commandValue;
+			this.label = label;
+			this.parameter = parameter;
+		}
+
+		/** @return name attribute of the matching &lt;command&gt; element **/
+		public String getCommandName() {
+			return commandName;
+		}
+
+		/** @return value attribute of the matching &lt;command&gt; element **/
+		public String getCommandValue() {
+			return commandValue;
+		}
+
+		/** @return label of the matching command, or null if it has none **/
+		public String getLabel() {
+			return label;
+		}
+
+		/** @return the rest of the response after the command value, or an empty string **/
+		public String getParameter() {
+			return parameter;
+		}
+
+		Match withParameter(String parameter) {
+			return new Match(commandName, commandValue, label, parameter);
+		}
+
+		@Override
+		public String toString() {
+			return commandName + (label == null ? "" : " (" + label + ")") + (parameter.length() == 0 ? "" : " " + parameter);
+		}
+	}
+
+	/**
+	 * Frozen trie node. Children are kept in parallel arrays sorted by
+	 * character and found by binary search.
+	 */
+	private static final class Node {
+
+		private final char[] keys;
+		private final Node[] children;
+		private final Match match;
+
+		Node(char[] keys, Node[] children, Match match) {
+			this.keys = keys;
+			this.children = children;
+			this.match = match;
+		}
+
+		Node child(char key) {
+			int index = Arrays.binarySearch(keys, key);
+			return index < 0 ? null : children[index];
+		}
+	}
+
+	/**
+	 * Trie node while the index is being built
+	 */
+	private static final class Builder {
+
+		private final TreeMap<Character, Builder> children = new TreeMap<Character, Builder>();
+		private Match match;
+
+		Builder child(char key) {
+			Builder child = children.get(key);
+			if (child == null) {
+				child = new Builder();
+				children.put(key, child);
+			}
+			return child;
+		}
+
+		Node build() {
+			char[] keys = new char[children.size()];
+			Node[] nodes = new Node[children.size()];
+			int i = 0;
+			for (Map.Entry<Character, Builder> child : children.entrySet()) {
+				keys[i] = child.getKey();
+				nodes[i] = child.getValue().build();
+				i++;
+			}
+			return new Node(keys, nodes, match);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.taylor.utilities;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Running estimate of how long a device takes to answer, kept the way TCP
+ * estimates round trip time (RFC 6298): a smoothed mean (SRTT) and mean
+ * deviation (RTTVAR) of the samples, from which a timeout of SRTT + 4 RTTVAR
+ * follows. Each timeout doubles the next, up to 64 times, until a response
+ * arrives in time again. Responses that timed out are never sampled, since
+ * their time says nothing about the device.
+ */
+public class ResponseTimeEstimator {
+
+	private static final double ALPHA = 1.0 / 8;
+	private static final double BETA = 1.0 / 4;
+	private static final int K = 4;
+	private static final int MAX_BACKOFF = 6;
+	/** smallest allowance for variation, as RFC 6298's clock granularity **/
+	private static final long GRANULARITY = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private double smoothed = -1;
+	private double variation;
+	private int backoff;
+
+	/**
+	 * @param nanos time a response took to arrive, in full if its end can
+	 *            be seen, otherwise until its first bytes
+	 */
+	public void sample(long nanos) {
+		lock.lock();
+		try {
+			if (smoothed < 0) {
+				smoothed = nanos;
+				variation = nanos / 2.0;
+			} else {
+				variation = (1 - BETA) * variation + BETA * Math.abs(smoothed - nanos);
+				smoothed = (1 - ALPHA) * smoothed + ALPHA * nanos;
+			}
+			backoff = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Backs the timeout off after a response did not arrive in time
+	 */
+	public void timedOut() {
+		lock.lock();
+		try {
+			if (smoothed >= 0 && backoff < MAX_BACKOFF) {
+				backoff++;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return true once a response has been sampled
+	 */
+	public boolean hasEstimate() {
+		lock.lock();
+		try {
+			return smoothed >= 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return smoothed response time in nanoseconds (SRTT), or -1 if nothing
+	 *         has been sampled
+	 */
+	public long getSmoothed() {
+		lock.lock();
+		try {
+			return (long) smoothed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return mean deviation of the response time in nanoseconds (RTTVAR)
+	 */
+	public long getVariation() {
+		lock.lock();
+		try {
+			return (long) variation;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param minimum shortest time to return, in miliseconds
+	 * @param maximum longest time to return, in miliseconds
+	 * @return SRTT + 4 RTTVAR, backed off after timeouts, in miliseconds
+	 *         within the bounds, or maximum if nothing has been sampled
+	 */
+	public int getTimeout(int minimum, int maximum) {
+		long nanos;
+		lock.lock();
+		try {
+			if (smoothed < 0) {
+				return maximum;
+			}
+			nanos = (long) (smoothed + Math.max(GRANULARITY, K * variation)) << backoff;
+		} finally {
+			lock.unlock();
+		}
+		// round up so a response taking exactly the estimate still fits
+		long millis = (nanos + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1);
+		return (int) Math.max(minimum, Math.min(maximum, millis));
+	}
+}
@@ -0,0 +1,121 @@
+package com.taylor.utilities;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Spaces the writes to one device using the engine's timer rather than a
+ * sleeping thread. Writes go out in the order they were queued, each one no
+ * sooner than its gap after the write before it.
+ */
+class SendPacer {
+
+	private final NioEngine engine;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final ArrayDeque<PendingSend> queue = new ArrayDeque<PendingSend>();
+	private long lastSend = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+	private boolean draining;
+
+	/**
+	 * Constructor
+	 * @param engine engine whose timer runs delayed writes
+	 */
+	SendPacer(NioEngine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Queues the write. It happens on the calling thread when the gap has
+	 * already passed and nothing is queued ahead of it.
+	 * @param connection connection to write to
+	 * @param bytes bytes to write, from position to limit
+	 * @param gap miliseconds that must pass after the previous write
+	 * @return future completed once the bytes are written, or with the
+	 *         exception that stopped them
+	 */
+	CompletableFuture<Void> send(DeviceConnection connection, ByteBuffer bytes, int gap) {
+		PendingSend send = new PendingSend(connection, bytes, gap);
+		boolean drain = false;
+		lock.lock();
+		try {
+			queue.add(send);
+			if (!draining) {
+				draining = true;
+				drain = true;
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (drain) {
+			drain();
+		}
+		return send.future;
+	}
+
+	/**
+	 * Writes every queued send whose gap has passed, then schedules itself for
+	 * the next one. Only one drain runs at a time, which keeps the order. If
+	 * the drain itself fails, the next send starts a new one.
+	 */
+	private void drain() {
+		try {
+			drainQueued();
+		} catch (RuntimeException | Error e) {
+			lock.lock();
+			try {
+				draining = false;
+			} finally {
+				lock.unlock();
+			}
+			throw e;
+		}
+	}
+
+	private void drainQueued() {
+		while (true) {
+			PendingSend next;
+			lock.lock();
+			try {
+				next = queue.peek();
+				if (next == null) {
+					draining = false;
+					return;
+				}
+				long wait = lastSend + TimeUnit.MILLISECONDS.toNanos(next.gap) - System.nanoTime();
+				if (wait > 0) {
+					engine.schedule(this::drain, TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+					return;
+				}
+				queue.poll();
+				lastSend = System.nanoTime();
+			} finally {
+				lock.unlock();
+			}
+
+			try {
+				next.connection.write(next.bytes);
+			} catch (Throwable e) {
+				next.future.completeExceptionally(e);
+				continue;
+			}
+			next.future.complete(null);
+		}
+	}
+
+	private static class PendingSend {
+
+		private final DeviceConnection connection;
+		private final ByteBuffer bytes;
+		private final int gap;
+		private final CompletableFuture<Void> future = new CompletableFuture<Void>();
+
+		PendingSend(DeviceConnection connection, ByteBuffer bytes, int gap) {
+			this.connection = connection;
+			this.bytes = bytes;
+			this.gap = gap;
+		}
+	}
+}
@@ -8,6 +8,7 @@ import java.util.Map;
 public class Util {
 
 	public static final ASCIIReference asciiReference = ASCIIReference.getInstance();
+	private static final HexDumpFormatter hexDumpFormatter = new HexDumpFormatter();
 	
 	public static String convertAsciiToBase10(String str) {
 		return convertAsciiToBase10(str, false);
@@ -57,21 +58,21 @@ public class Util {
 	 * @return a string holding the HEX representation of the passed in str.
 	 **/
 	public static String displayAsciiCodes(String str, boolean dumpOut, boolean brackets) {
-		char[] chars = str.toCharArray();
-		String asciiCode = "";
-		StringBuffer dumpOutput = new StringBuffer();
-		StringBuffer returnOutput = new StringBuffer();
-
-		// output the ASCII code version of the string
-		if (dumpOut) System.out.print("  ASCII:");
-		for (int i = 0; i < chars.length; i++) {
-			asciiCode = asciiReference.getCharString((int) chars[i], brackets);
-			// left pad to 4 characters with spaces
-			dumpOutput.append(String.format("%1$5s", asciiCode));
-			returnOutput.append(asciiCode);
+		int length = str.length();
+		StringBuilder returnOutput = new StringBuilder(length * 2);
+		for (int i = 0; i < length; i++) {
+			returnOutput.append(asciiReference.getCharString(str.charAt(i), brackets));
 		}
-		if (dumpOut) System.out.println(dumpOutput.toString());
 
+		// output the ASCII code version of the string, each left padded to 5
+		if (dumpOut) {
+			StringBuilder dumpOutput = new StringBuilder(8 + length * 5);
+			dumpOutput.append("  ASCII:");
+			for (int i = 0; i < length; i++) {
+				appendPadded(dumpOutput, asciiReference.getCharString(str.charAt(i), brackets), 5);
+			}
+			System.out.println(dumpOutput);
+		}
 
 		return returnOutput.toString();
 	}
@@ -98,19 +99,17 @@ public class Util {
 	 * @return a string holding the HEX representation of the passed in str.
 	 **/
 	public static String convertStringToHex(String str, boolean dumpOut) {
-		char[] chars = str.toCharArray();
-		String out_put = "";
+		StringBuilder hex = HexCodec.encode(str, new StringBuilder(str.length() << 1));
 
 		// output the HEX version of the string
-		if (dumpOut) System.out.print("    Hex: ");
-		StringBuffer hex = new StringBuffer();
-		for (int i = 0; i < chars.length; i++) {
-			out_put = Integer.toHexString((int) chars[i]);
-			if (out_put.length() == 1) hex.append("0");
-			hex.append(out_put);
-			if (dumpOut) System.out.print("0x" + (out_put.length() == 1 ? "0" : "") + out_put + " ");
+		if (dumpOut) {
+			StringBuilder dump = new StringBuilder(9 + str.length() * 5);
+			dump.append("    Hex: ");
+			for (int i = 0; i < str.length(); i++) {
+				HexCodec.appendChar(str.charAt(i), dump.append("0x")).append(' ');
+			}
+			System.out.println(dump);
 		}
-		if (dumpOut) System.out.println("");
 
 		/*
 		 * if (dumpOut) System.out.print(" Base10: "); for(int i = 0; i <
@@ -145,27 +144,16 @@ public class Util {
 	 *         numberStr.
 	 **/
 	public static Integer convertBigEndianHexStringToInteger(String str, boolean dumpOut) {
-		char[] chars = str.toCharArray();
-		String out_put = "";
-
-		if (dumpOut) System.out.println("\n      AsciiHex: 0x" + str);
-		if (dumpOut) System.out.print("       Decimal: ");
-
-		StringBuffer hex = new StringBuffer();
-		String hexInt = new String();
-		for (int i = 0; i < chars.length; i++) {
-			out_put = Integer.toHexString((int) chars[i]);
-			if (out_put.length() == 1) hex.append("0");
-			hex.append(out_put);
-			if (dumpOut) System.out.print((out_put.length() == 1 ? "0" : "") + out_put);
+		if (dumpOut) {
+			System.out.println("\n      AsciiHex: 0x" + str);
+			System.out.println("       Decimal: " + HexCodec.encode(str, new StringBuilder()));
 		}
-		hexInt = "" + (Integer.parseInt(hex.toString(), 16));
-		if (dumpOut) System.out.println("");
-		if (dumpOut) System.out.println("      Decimal: " + hexInt.toString());
 
-		return Integer.parseInt(hexInt.toString());
+		// read the chars straight into the number rather than through a hex string
+		int value = HexCodec.parseBigEndian(str);
+		if (dumpOut) System.out.println("      Decimal: " + value);
 
-		// return Integer.decode("0x"+str);
+		return value;
 	}
 
 	/**
@@ -202,50 +190,93 @@ public class Util {
 	 **/
 	public static String convertHexToString(String hex, boolean dumpOut) {
 
-		StringBuilder sb = new StringBuilder();
-		StringBuilder temp = new StringBuilder();
-		String out_put = "";
-
-		if (dumpOut) System.out.print("    Hex: ");
 		// 49204c6f7665204a617661 split into two characters 49, 20, 4c...
-		for (int i = 0; i < hex.length() - 1; i += 2) {
-
-			// grab the hex in pairs
-			out_put = hex.substring(i, (i + 2));
-			if (dumpOut) System.out.print("0x" + out_put + " ");
-			// convert hex to decimal
-			int decimal = Integer.parseInt(out_put, 16);
-			// convert the decimal to character
-			sb.append((char) decimal);
-
-			temp.append(decimal);
+		String decoded = HexCodec.decode(hex, new StringBuilder(hex.length() >> 1)).toString();
+
+		if (dumpOut) {
+			StringBuilder dump = new StringBuilder("    Hex: ");
+			StringBuilder decimals = new StringBuilder();
+			for (int i = 0; i < decoded.length(); i++) {
+				dump.append("0x").append(hex, i << 1, (i << 1) + 2).append(' ');
+				decimals.append((int) decoded.charAt(i));
+			}
+			System.out.println(dump + "    Decimal : " + decimals);
 		}
-		if (dumpOut) System.out.println("    Decimal : " + temp.toString());
 
-		return sb.toString();
+		return decoded;
 	}
 	
+	/**
+	 * Prints the CHAR#, Hex, Base10 and ASCII rows for the string. The rows are
+	 * built in one buffer and printed with a single call.
+	 * @param string string to show
+	 */
 	public static void displayStringDebug(String string) {
+		System.out.print(getStringDebug(string));
+	}
 	
-		
-		char[] chars = string.toCharArray();
+	/**
+	 * Builds the CHAR#, Hex, Base10 and ASCII rows for the string, each ending
+	 * with a newline, for output that goes to a log rather than the console
+	 * @param string string to show
+	 * @return the four rows
+	 */
+	public static String getStringDebug(String string) {
+		int length = string.length();
+		StringBuilder out = new StringBuilder(40 + length * 22);
+
+		// character numbers, each left padded to 5
+		out.append("  CHAR#:");
+		for (int i = 0; i < length; i++) {
+			appendPadded(out, i, 5);
+		}
+		out.append('\n');
 
-		// output the ASCII code version of the string
-		System.out.print("  CHAR#:");
-		StringBuffer ascii = new StringBuffer();
-		for (int i = 0; i < chars.length; i++) {
+		out.append("    Hex: ");
+		for (int i = 0; i < length; i++) {
+			HexCodec.appendChar(string.charAt(i), out.append("0x")).append(' ');
+		}
+		out.append('\n');
 
-			// left pad to 4 characters with spaces
-			ascii.append(String.format("%1$5d", i));
+		out.append(" Base10: ");
+		for (int i = 0; i < length; i++) {
+			int code = string.charAt(i);
+			out.append(code < 10 ? "  0" : "  ").append(code).append(' ');
 		}
-		System.out.println(ascii.toString());
+		out.append('\n');
 
-		
-		convertStringToHex(string, true);
-		convertAsciiToBase10(string, true);
-		displayAsciiCodes(string, true, false);					
+		// ascii names, each left padded to 5
+		out.append("  ASCII:");
+		for (int i = 0; i < length; i++) {
+			appendPadded(out, asciiReference.getCharString(string.charAt(i), false), 5);
+		}
+		out.append('\n');
 
+		return out.toString();
+	}
 	
+	/**
+	 * Formats bytes in the offset / hex / ASCII layout of {@link HexDumpFormatter}
+	 * @param bytes bytes to show
+	 * @return the hex dump, one line per 16 bytes
+	 */
+	public static String hexDump(byte[] bytes) {
+		return hexDumpFormatter.format(bytes);
+	}
+	
+	private static void appendPadded(StringBuilder out, int value, int width) {
+		int digits = value < 10 ? 1 : value < 100 ? 2 : value < 1000 ? 3 : value < 10000 ? 4 : Integer.toString(value).length();
+		for (int pad = digits; pad < width; pad++) {
+			out.append(' ');
+		}
+		out.append(value);
+	}
+
+	private static void appendPadded(StringBuilder out, String value, int width) {
+		for (int pad = value.length(); pad < width; pad++) {
+			out.append(' ');
+		}
+		out.append(value);
 	}
 	
 	/**